@@ -0,0 +1,162 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing and outcome of applying changes to a batch of slaves.
+ * Records how long each slave took to build and how long the single commit of the node list took.
+ * The report is written by one thread at a time, but the number of slaves done and failed can be read by other
+ * threads while the batch is running, to follow its progress.
+ */
+public class ApplyReport {
+
+    private final Map<String, Long> nodeNanos = new LinkedHashMap<String, Long>();
+    private long commitNanos;
+    private long totalNanos;
+    private volatile int doneCount;
+    private volatile int failedCount;
+    private volatile int skippedCount;
+
+    /**
+     * Records that a slave has been built.
+     * @param nodeName the name of the slave.
+     * @param nanos the time it took, in nanoseconds.
+     */
+    void nodeDone(String nodeName, long nanos) {
+        nodeNanos.put(nodeName, nanos);
+        doneCount++;
+    }
+
+    /**
+     * Records that a slave was left as it is, since the change would not have changed anything.
+     * @param nodeName the name of the slave.
+     */
+    void nodeSkipped(String nodeName) {
+        skippedCount++;
+        doneCount++;
+    }
+
+    /**
+     * Records that a slave could not be changed, taking it back if it was recorded as done.
+     * @param nodeName the name of the slave.
+     */
+    void nodeFailed(String nodeName) {
+        if (nodeNanos.remove(nodeName) != null) {
+            doneCount--;
+        }
+        failedCount++;
+    }
+
+    /**
+     * Gets the number of slaves done so far, changed or skipped, safe to call while the batch is running.
+     * @return the number of slaves done.
+     */
+    public int getDoneCount() {
+        return doneCount;
+    }
+
+    /**
+     * Gets the number of slaves that were left as they are, since the change would not have changed anything.
+     * @return the number of skipped slaves.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Gets the number of slaves that have failed so far, safe to call while the batch is running.
+     * @return the number of failed slaves.
+     */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Records the time a node list commit took, added to any earlier commits of the same batch.
+     * @param nanos the time it took, in nanoseconds.
+     */
+    void addCommitNanos(long nanos) {
+        commitNanos += nanos;
+    }
+
+    /**
+     * Records the total time of the apply.
+     * @param nanos the time it took, in nanoseconds.
+     */
+    void setTotalNanos(long nanos) {
+        totalNanos = nanos;
+    }
+
+    /**
+     * Gets the number of slaves that were changed.
+     * @return the number of changed slaves.
+     */
+    public int getChangedCount() {
+        return nodeNanos.size();
+    }
+
+    /**
+     * Gets the time each changed slave took to build, in milliseconds.
+     * @return slave names mapped to milliseconds, in the order they were changed.
+     */
+    public Map<String, Long> getNodeMillis() {
+        Map<String, Long> millis = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : nodeNanos.entrySet()) {
+            millis.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(millis);
+    }
+
+    /**
+     * Gets the time the commit of the node list took, in milliseconds.
+     * @return the commit time.
+     */
+    public long getCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(commitNanos);
+    }
+
+    /**
+     * Gets the total time of the apply, in milliseconds.
+     * @return the total time.
+     */
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    /**
+     * Summarizes the report for logging.
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+        return "changed " + getChangedCount() + " slaves and skipped " + getSkippedCount() + " unchanged in "
+                + getTotalMillis() + " ms, of which " + getCommitMillis() + " ms saving the node list";
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Failure;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.context.SecurityContextImpl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bulk configure, create or delete running in the background, so that the request that started it doesn't have
+ * to wait for thousands of slaves to be changed.
+ * The jobs run on small executors with bounded queues, a job that doesn't fit is refused instead of piling up.
+ * Jobs that wait for slaves to come online run on an executor of their own, see {@link Kind}, so that they can't
+ * hold up the configure, create and delete jobs for minutes.
+ * The progress is followed through the {@link ApplyReport} of the job, and the jobs are kept by id for a while
+ * after they have finished so that the result can be shown.
+ * A job runs as the user that submitted it, and only that user can follow it, see {@link #isOwnedBy}.
+ */
+public final class BulkJob implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(BulkJob.class.getName());
+
+    /**
+     * The number of change jobs that can run at the same time. The changes of the node list are serialized anyway,
+     * a second thread only lets a job prepare while another one commits.
+     */
+    static final int THREADS = 2;
+
+    /**
+     * The number of change jobs that can wait for a thread.
+     */
+    static final int QUEUE_CAPACITY = 8;
+
+    /**
+     * The number of connect jobs that can run at the same time.
+     */
+    static final int CONNECT_THREADS = 2;
+
+    /**
+     * The number of connect jobs that can wait for a thread.
+     */
+    static final int CONNECT_QUEUE_CAPACITY = 4;
+
+    /**
+     * The number of jobs that are remembered, finished or not.
+     */
+    static final int MAX_JOBS = 64;
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    /**
+     * The owner of jobs submitted without any authentication.
+     */
+    private static final String ANONYMOUS = "anonymous";
+
+    private static final Map<Long, BulkJob> JOBS = Collections.synchronizedMap(
+            new LinkedHashMap<Long, BulkJob>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, BulkJob> eldest) {
+                    return size() > MAX_JOBS;
+                }
+            });
+
+    /**
+     * The states of a job.
+     */
+    public enum State {
+        /**
+         * Waiting for a thread.
+         */
+        QUEUED,
+        /**
+         * Changing the slaves.
+         */
+        RUNNING,
+        /**
+         * Finished successfully.
+         */
+        DONE,
+        /**
+         * Finished with a failure.
+         */
+        FAILED
+    }
+
+    /**
+     * The kinds of jobs, each running on an executor of its own.
+     */
+    public enum Kind {
+        /**
+         * Configure, create and delete, which are done as soon as the node list has been changed.
+         */
+        CHANGE(THREADS, QUEUE_CAPACITY, "Multi slave config bulk job "),
+        /**
+         * Launches and rollouts in waves, which wait for slaves to come online.
+         */
+        CONNECT(CONNECT_THREADS, CONNECT_QUEUE_CAPACITY, "Multi slave config connect job ");
+
+        private final ThreadPoolExecutor executor;
+
+        /**
+         * Standard constructor.
+         * @param threads the number of jobs of this kind that can run at the same time.
+         * @param queueCapacity the number of jobs of this kind that can wait for a thread.
+         * @param threadName the name of the threads, before their number.
+         */
+        Kind(int threads, int queueCapacity, String threadName) {
+            executor = createExecutor(threads, queueCapacity, threadName);
+        }
+    }
+
+    /**
+     * The work of a job.
+     */
+    public interface Work {
+        /**
+         * Does the work.
+         * @param report where the progress is recorded.
+         * @return the name of the page showing the result.
+         * @throws Failure if the work failed, the message is shown to the user.
+         */
+        String run(ApplyReport report);
+    }
+
+    private final long id;
+    private final Kind kind;
+    private final NodeManageLink.UserMode mode;
+    private final int total;
+    private final Work work;
+    private final Authentication authentication;
+    private final String owner;
+    private final ApplyReport report = new ApplyReport();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile State state = State.QUEUED;
+    private volatile long startMillis;
+    private volatile long endMillis;
+    private volatile String resultPage;
+    private volatile String failure;
+
+    /**
+     * Standard constructor, the job is owned by the user of the calling thread.
+     * @param kind the kind of job.
+     * @param mode the wizard that started the job.
+     * @param total the number of slaves the job works on.
+     * @param work the work.
+     */
+    BulkJob(Kind kind, NodeManageLink.UserMode mode, int total, Work work) {
+        this.id = IDS.incrementAndGet();
+        this.kind = kind;
+        this.mode = mode;
+        this.total = total;
+        this.work = work;
+        this.authentication = SecurityContextHolder.getContext().getAuthentication();
+        this.owner = getName(authentication);
+    }
+
+    /**
+     * Gets the name of a user.
+     * @param user the authentication of the user, or null if there is none.
+     * @return the name, anonymous if there is no authentication.
+     */
+    private static String getName(Authentication user) {
+        if (user == null) {
+            return ANONYMOUS;
+        }
+        return user.getName();
+    }
+
+    /**
+     * Creates the executor of a kind of jobs.
+     * @param threads the number of jobs that can run at the same time.
+     * @param queueCapacity the number of jobs that can wait for a thread.
+     * @param threadName the name of the threads, before their number.
+     * @return the executor.
+     */
+    private static ThreadPoolExecutor createExecutor(int threads, int queueCapacity, final String threadName) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, threadName + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Starts a change job in the background.
+     * @param mode the wizard that started the job.
+     * @param total the number of slaves the job works on.
+     * @param work the work.
+     * @return the job.
+     * @throws Failure if too many change jobs are running or waiting already.
+     */
+    public static BulkJob submit(NodeManageLink.UserMode mode, int total, Work work) {
+        return submit(Kind.CHANGE, mode, total, work);
+    }
+
+    /**
+     * Starts a job in the background.
+     * @param kind the kind of job, which decides the executor it runs on.
+     * @param mode the wizard that started the job.
+     * @param total the number of slaves the job works on.
+     * @param work the work.
+     * @return the job.
+     * @throws Failure if too many jobs of the kind are running or waiting already.
+     */
+    public static BulkJob submit(Kind kind, NodeManageLink.UserMode mode, int total, Work work) {
+        BulkJob job = new BulkJob(kind, mode, total, work);
+        JOBS.put(job.getId(), job);
+        try {
+            kind.executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            JOBS.remove(job.getId());
+            throw new Failure(Messages.TooManyBulkJobs());
+        }
+        return job;
+    }
+
+    /**
+     * Gets a job that has been submitted.
+     * @param id the id of the job.
+     * @return the job, or null if there is no such job or it has been forgotten.
+     */
+    public static BulkJob get(long id) {
+        return JOBS.get(id);
+    }
+
+    /**
+     * Runs the work as the user that submitted the job, and records how it went.
+     * The job is finished whatever the work throws, errors included, so that its page never waits forever.
+     */
+    public void run() {
+        startMillis = System.currentTimeMillis();
+        state = State.RUNNING;
+        SecurityContext previousContext = SecurityContextHolder.getContext();
+        SecurityContext context = new SecurityContextImpl();
+        context.setAuthentication(authentication);
+        SecurityContextHolder.setContext(context);
+        State endState = State.FAILED;
+        try {
+            resultPage = work.run(report);
+            endState = State.DONE;
+        } catch (Failure e) {
+            failure = e.getMessage();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Bulk job " + id + " failed", e);
+            failure = e.toString();
+        } catch (Error e) {
+            logger.log(Level.SEVERE, "Bulk job " + id + " failed", e);
+            failure = e.toString();
+            throw e;
+        } finally {
+            SecurityContextHolder.setContext(previousContext);
+            endMillis = System.currentTimeMillis();
+            state = endState;
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Waits a while for the job to finish.
+     * @param millis the longest time to wait, in milliseconds.
+     * @return true if the job has finished.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     */
+    public boolean awaitFinished(long millis) throws InterruptedException {
+        return finished.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if the job has finished, successfully or not.
+     * @return true if it has finished.
+     */
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    /**
+     * Checks if a user submitted the job, only that user may follow it.
+     * @param user the authentication of the user, or null if there is none.
+     * @return true if the user owns the job.
+     */
+    public boolean isOwnedBy(Authentication user) {
+        return owner.equals(getName(user));
+    }
+
+    /**
+     * Gets the id of the job.
+     * @return the id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the kind of job.
+     * @return the kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the wizard that started the job.
+     * @return the user mode.
+     */
+    public NodeManageLink.UserMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the work of the job.
+     * @return the work.
+     */
+    Work getWork() {
+        return work;
+    }
+
+    /**
+     * Gets the state of the job.
+     * @return the state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of slaves the job works on.
+     * @return the number of slaves.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the number of slaves that are done so far.
+     * @return the number of slaves done.
+     */
+    public int getDone() {
+        return report.getDoneCount();
+    }
+
+    /**
+     * Gets the number of slaves that have failed so far.
+     * @return the number of failed slaves.
+     */
+    public int getFailed() {
+        return report.getFailedCount();
+    }
+
+    /**
+     * Gets the report of the job, only complete when the job has finished.
+     * @return the report.
+     */
+    public ApplyReport getReport() {
+        return report;
+    }
+
+    /**
+     * Estimates how long is left of the job, from the pace of the slaves done so far.
+     * @return the estimated time left in milliseconds, 0 if the job has finished, or -1 if it can't be estimated yet.
+     */
+    public long getEtaMillis() {
+        return estimateEtaMillis(state, startMillis, System.currentTimeMillis(), getDone() + getFailed(), total);
+    }
+
+    /**
+     * Estimates how long is left of a job.
+     * @param state the state of the job.
+     * @param startMillis when the job started.
+     * @param now the current time.
+     * @param processed the number of slaves done or failed.
+     * @param total the number of slaves of the job.
+     * @return the estimated time left in milliseconds, 0 if the job has finished, or -1 if it can't be estimated yet.
+     */
+    static long estimateEtaMillis(State state, long startMillis, long now, int processed, int total) {
+        if (state == State.DONE || state == State.FAILED) {
+            return 0;
+        }
+        if (state == State.QUEUED || processed <= 0) {
+            return -1;
+        }
+        long elapsed = now - startMillis;
+        return elapsed * Math.max(0, total - processed) / processed;
+    }
+
+    /**
+     * Gets how long the job ran.
+     * @return the time in milliseconds, so far if it is still running.
+     */
+    public long getElapsedMillis() {
+        if (startMillis == 0) {
+            return 0;
+        }
+        if (isFinished()) {
+            return endMillis - startMillis;
+        }
+        return System.currentTimeMillis() - startMillis;
+    }
+
+    /**
+     * Gets the page showing the result of the job.
+     * @return the name of the page, or null if the job hasn't finished successfully.
+     */
+    public String getResultPage() {
+        return resultPage;
+    }
+
+    /**
+     * Gets why the job failed.
+     * @return the message, or null if the job hasn't failed.
+     */
+    public String getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Computer;
+import hudson.model.Failure;
+import hudson.model.Node;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches a selection of slaves in parallel, the work of a launch {@link BulkJob}.
+ * At most a given number of slaves are connecting at the same time, and the connections are started a while apart,
+ * so that bringing hundreds of slaves back doesn't flood the master with connections at once. A slave that isn't
+ * online within its timeout is given up. A slave is connecting until it is online, not only until its launcher has
+ * finished: a JNLP launcher does nothing, and the agent connects back on its own later.
+ * The connections are made by Jenkins in the background, the thread of the job only starts them and follows their
+ * futures, so a launch of any size takes no threads of its own.
+ */
+public final class BulkLauncher implements BulkJob.Work {
+
+    /**
+     * The default number of slaves connecting at the same time.
+     */
+    static final int DEFAULT_CONCURRENCY = 10;
+
+    /**
+     * The default time between the start of two connections, in milliseconds.
+     */
+    static final long DEFAULT_STAGGER_MILLIS = 500;
+
+    /**
+     * The default time a slave has to come online, in seconds.
+     */
+    static final int DEFAULT_TIMEOUT_SECONDS = 120;
+
+    /**
+     * The longest time between two checks of the connections in progress, in milliseconds.
+     */
+    static final long POLL_MILLIS = 100;
+
+    /**
+     * The states of the launch of a slave.
+     */
+    public enum State {
+        /**
+         * Waiting for its turn.
+         */
+        WAITING,
+        /**
+         * Connecting.
+         */
+        CONNECTING,
+        /**
+         * Online after being launched.
+         */
+        ONLINE,
+        /**
+         * Online already, it wasn't launched.
+         */
+        ALREADY_ONLINE,
+        /**
+         * Not online after being launched.
+         */
+        FAILED,
+        /**
+         * Not online within its timeout.
+         */
+        TIMED_OUT
+    }
+
+    private final List<Launch> launches;
+    private final int concurrency;
+    private final long staggerMillis;
+    private final long timeoutMillis;
+
+    /**
+     * Standard constructor, slaves that are online already are left as they are.
+     * @param nodes the slaves to launch.
+     * @param concurrency the largest number of slaves connecting at the same time.
+     * @param staggerMillis the shortest time between the start of two connections, in milliseconds.
+     * @param timeoutSeconds the time each slave has to come online, in seconds.
+     */
+    public BulkLauncher(List<? extends Node> nodes, int concurrency, long staggerMillis, int timeoutSeconds) {
+        this(nodes, concurrency, staggerMillis, timeoutSeconds, false);
+    }
+
+    /**
+     * Constructor that can also reconnect slaves that are online, to make them use a new launch method.
+     * @param nodes the slaves to launch.
+     * @param concurrency the largest number of slaves connecting at the same time.
+     * @param staggerMillis the shortest time between the start of two connections, in milliseconds.
+     * @param timeoutSeconds the time each slave has to come online, in seconds.
+     * @param reconnect true if slaves that are online should be disconnected and launched again.
+     */
+    public BulkLauncher(List<? extends Node> nodes, int concurrency, long staggerMillis, int timeoutSeconds,
+                        boolean reconnect) {
+        List<Launch> list = new ArrayList<Launch>(nodes.size());
+        for (Node node : nodes) {
+            list.add(new Launch(node, reconnect));
+        }
+        this.launches = Collections.unmodifiableList(list);
+        this.concurrency = Math.max(1, concurrency);
+        this.staggerMillis = Math.max(0, staggerMillis);
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds));
+    }
+
+    /**
+     * Launches the slaves and waits for the last one to come online, fail or time out.
+     * @param report where each slave is recorded as done or failed.
+     * @return the name of the page showing the result.
+     * @throws Failure if the launch was interrupted.
+     */
+    public String run(ApplyReport report) {
+        long start = System.nanoTime();
+        List<Launch> connecting = new ArrayList<Launch>(Math.min(concurrency, launches.size()));
+        Iterator<Launch> waiting = launches.iterator();
+        long nextStart = 0;
+        try {
+            while (waiting.hasNext() || !connecting.isEmpty()) {
+                long now = System.currentTimeMillis();
+                while (waiting.hasNext() && connecting.size() < concurrency && now >= nextStart) {
+                    Launch launch = waiting.next();
+                    if (launch.start(now)) {
+                        connecting.add(launch);
+                    } else {
+                        record(report, launch);
+                    }
+                    nextStart = now + staggerMillis;
+                }
+                for (Iterator<Launch> iterator = connecting.iterator(); iterator.hasNext();) {
+                    Launch launch = iterator.next();
+                    if (launch.poll(now, timeoutMillis)) {
+                        iterator.remove();
+                        record(report, launch);
+                    }
+                }
+                long wait = POLL_MILLIS;
+                if (waiting.hasNext() && connecting.size() < concurrency) {
+                    wait = Math.min(wait, nextStart - System.currentTimeMillis());
+                }
+                if (wait > 0 && (waiting.hasNext() || !connecting.isEmpty())) {
+                    Thread.sleep(wait);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Launch launch : connecting) {
+                launch.cancel();
+                record(report, launch);
+            }
+            Thread.currentThread().interrupt();
+            throw new Failure(Messages.LaunchInterrupted());
+        }
+        report.setTotalNanos(System.nanoTime() - start);
+        return "launched";
+    }
+
+    /**
+     * Records a finished launch.
+     * @param report the report to record the launch in.
+     * @param launch the launch.
+     */
+    private static void record(ApplyReport report, Launch launch) {
+        if (launch.isOnline()) {
+            report.nodeDone(launch.getName(), TimeUnit.MILLISECONDS.toNanos(launch.getMillis()));
+        } else {
+            report.nodeFailed(launch.getName());
+        }
+    }
+
+    /**
+     * Gets the launches of the slaves, in the order they are started.
+     * @return the launches.
+     */
+    public List<Launch> getLaunches() {
+        return launches;
+    }
+
+    /**
+     * Represents the launches for the live result table.
+     * @return JSONArray with "name", "state", "millis" and "message" of each slave.
+     */
+    public JSONArray toJSON() {
+        JSONArray array = new JSONArray();
+        for (Launch launch : launches) {
+            JSONObject row = new JSONObject();
+            row.put("name", launch.getName());
+            row.put("state", launch.getState().name());
+            row.put("millis", launch.getMillis());
+            row.put("message", launch.getMessage() == null ? "" : launch.getMessage());
+            array.add(row);
+        }
+        return array;
+    }
+
+    /**
+     * The launch of one slave.
+     */
+    public static final class Launch {
+
+        private final Node node;
+        private final boolean reconnect;
+        private Computer computer;
+        private Future<?> future;
+        private boolean launched;
+        private volatile long startMillis;
+        private volatile State state = State.WAITING;
+        private volatile long millis;
+        private volatile String message;
+
+        /**
+         * Standard constructor.
+         * @param node the slave to launch.
+         * @param reconnect true if the slave should be launched again if it is online.
+         */
+        Launch(Node node, boolean reconnect) {
+            this.node = node;
+            this.reconnect = reconnect;
+        }
+
+        /**
+         * Starts to connect the computer of the slave, unless it is online already and shouldn't be reconnected.
+         * @param now the current time, in milliseconds.
+         * @return true if the slave is connecting, false if the launch has finished already.
+         */
+        boolean start(long now) {
+            startMillis = now;
+            state = State.CONNECTING;
+            computer = node.toComputer();
+            if (computer == null) {
+                finish(State.FAILED, Messages.NoComputerToLaunch());
+                return false;
+            }
+            if (!reconnect && computer.isOnline()) {
+                finish(State.ALREADY_ONLINE, null);
+                return false;
+            }
+            future = computer.connect(reconnect);
+            return true;
+        }
+
+        /**
+         * Checks if the slave has come online, and gives it up if it has run out of time.
+         * The launcher finishing is not enough, the slave may connect back on its own after that, so a slave that
+         * isn't online after its launcher has finished only fails when its time has run out.
+         * @param now the current time, in milliseconds.
+         * @param timeoutMillis the time the slave has to come online, in milliseconds.
+         * @return true if the launch has finished.
+         */
+        boolean poll(long now, long timeoutMillis) {
+            if (!launched && future.isDone()) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    finish(State.FAILED, String.valueOf(e.getCause()));
+                    return true;
+                } catch (CancellationException e) {
+                    finish(State.FAILED, String.valueOf(e));
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finish(State.FAILED, Messages.LaunchInterrupted());
+                    return true;
+                }
+                launched = true;
+            }
+            if (launched && computer.isOnline()) {
+                finish(State.ONLINE, null);
+                return true;
+            }
+            if (now - startMillis < timeoutMillis) {
+                return false;
+            }
+            if (launched) {
+                finish(State.FAILED, Messages.SlaveNotOnlineAfterLaunch());
+            } else {
+                future.cancel(true);
+                finish(State.TIMED_OUT, Messages.LaunchTimedOut(TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)));
+            }
+            return true;
+        }
+
+        /**
+         * Gives up a connection in progress.
+         */
+        void cancel() {
+            future.cancel(true);
+            finish(State.FAILED, Messages.LaunchInterrupted());
+        }
+
+        /**
+         * Records how the launch ended.
+         * @param endState the state it ended in.
+         * @param endMessage what went wrong, or null if it went well.
+         */
+        private void finish(State endState, String endMessage) {
+            millis = System.currentTimeMillis() - startMillis;
+            message = endMessage;
+            state = endState;
+        }
+
+        /**
+         * Gets the name of the slave.
+         * @return the name.
+         */
+        public String getName() {
+            return node.getNodeName();
+        }
+
+        /**
+         * Gets the state of the launch.
+         * @return the state.
+         */
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Checks if the slave is online after the launch.
+         * @return true if it is.
+         */
+        public boolean isOnline() {
+            return state == State.ONLINE || state == State.ALREADY_ONLINE;
+        }
+
+        /**
+         * Gets how long the launch took.
+         * @return the time in milliseconds, 0 until it has finished.
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Gets what went wrong.
+         * @return the message, or null if nothing went wrong.
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The settings to change on a batch of slaves, compiled once from the submitted form.
+ * Everything that is the same for all slaves is worked out up front: the text settings are split around their
+ * environment variables, the labels to add and remove are tokenized and interned unless they contain environment
+ * variables, and the number of executors is parsed. Labels that differ between slaves are compared as they are,
+ * and never interned. Applying the change to a slave then only expands the
+ * variables and builds the new slave.
+ * A change set is immutable, so it can be kept in the session to show what was applied.
+ */
+public final class ChangeSet {
+
+    private final Template description;
+    private final Template remoteFS;
+    private final String numExecutors;
+    private final String setLabelString;
+    private final LabelDelta addLabels;
+    private final LabelDelta removeLabels;
+    private final Node.Mode mode;
+    private final ComputerLauncher launcher;
+    private final RetentionStrategy retentionStrategy;
+
+    /**
+     * Compiles a change set from the settings interpreted from a form, see {@link NodeList#interpretJSON}.
+     * @param settings the settings to change, by the keys of the form.
+     */
+    private ChangeSet(Map<?, ?> settings) {
+        description = Template.compile((String)settings.get("description"));
+        remoteFS = Template.compile((String)settings.get("remoteFS"));
+        numExecutors = parseExecutors((String)settings.get("numExecutors"));
+        setLabelString = (String)settings.get("setLabelString");
+        addLabels = LabelDelta.compile((String)settings.get("addLabelString"));
+        removeLabels = LabelDelta.compile((String)settings.get("removeLabelString"));
+        mode = (Node.Mode)settings.get("mode");
+        launcher = (ComputerLauncher)settings.get("launcher");
+        retentionStrategy = (RetentionStrategy)settings.get("retentionStrategy");
+    }
+
+    /**
+     * Compiles a change set from the settings interpreted from a form, see {@link NodeList#interpretJSON}.
+     * @param settings the settings to change, by the keys of the form.
+     * @return the change set.
+     */
+    public static ChangeSet compile(Map<?, ?> settings) {
+        return new ChangeSet(settings);
+    }
+
+    /**
+     * Parses the number of executors once, so that every slave gets the same canonical number.
+     * Text that isn't a number is kept as it is, for the slave to interpret the same way it always has.
+     * @param value the submitted number, or null if it isn't changed.
+     * @return the number as text, or null if it isn't changed.
+     */
+    private static String parseExecutors(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return String.valueOf(Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    /**
+     * Builds a slave with the changed settings, in place of another slave.
+     * Settings that aren't changed are taken from the slave, and environment variables are expanded in all of them.
+     * @param slave the slave to change.
+     * @return the new slave.
+     * @throws IOException if the slave could not be created.
+     * @throws Descriptor.FormException if any setting is invalid.
+     */
+    public DumbSlave apply(DumbSlave slave) throws IOException, Descriptor.FormException {
+        String name = slave.getNodeName();
+        String newDescription;
+        if (description != null) {
+            newDescription = description.expand(name);
+        } else {
+            newDescription = expand(name, slave.getNodeDescription());
+        }
+        String newRemoteFS;
+        if (remoteFS != null) {
+            newRemoteFS = remoteFS.expand(name);
+        } else {
+            newRemoteFS = expand(name, slave.getRemoteFS());
+        }
+        String newNumExecutors = numExecutors;
+        if (newNumExecutors == null) {
+            newNumExecutors = String.valueOf(slave.getNumExecutors());
+        }
+        String labels = setLabelString;
+        if (labels == null) {
+            labels = slave.getLabelString();
+        }
+        if (addLabels != null) {
+            labels = addLabels.addTo(name, labels);
+        }
+        if (removeLabels != null) {
+            labels = removeLabels.removeFrom(name, labels);
+        }
+        ComputerLauncher newLauncher = launcher;
+        if (newLauncher == null) {
+            newLauncher = slave.getLauncher();
+        }
+        return new DumbSlave(name, newDescription, newRemoteFS, newNumExecutors,
+                mode != null ? mode : slave.getMode(), expand(name, labels),
+                EnvironmentVariables.launcherFromVariables(name, newLauncher),
+                retentionStrategy != null ? retentionStrategy : slave.getRetentionStrategy(),
+                slave.getNodeProperties().toList());
+    }
+
+    /**
+     * Expands the environment variables in a setting of a slave, without copying settings that have none.
+     * @param slaveName the name of the slave.
+     * @param value the setting.
+     * @return the expanded setting.
+     */
+    private static String expand(String slaveName, String value) {
+        if (value == null || !EnvironmentVariables.containsEnvironmentVariables(value)) {
+            return value;
+        }
+        return EnvironmentVariables.fromVariables(slaveName, value);
+    }
+
+    /**
+     * Checks if nothing is changed.
+     * @return true if no setting is changed.
+     */
+    public boolean isEmpty() {
+        return description == null && remoteFS == null && numExecutors == null && setLabelString == null
+                && addLabels == null && removeLabels == null && mode == null && launcher == null
+                && retentionStrategy == null;
+    }
+
+    /**
+     * Gets the new description.
+     * @return the description as submitted, or null if it isn't changed.
+     */
+    public String getDescription() {
+        return description == null ? null : description.getText();
+    }
+
+    /**
+     * Gets the new remote FS root.
+     * @return the remote FS root as submitted, or null if it isn't changed.
+     */
+    public String getRemoteFS() {
+        return remoteFS == null ? null : remoteFS.getText();
+    }
+
+    /**
+     * Gets the new number of executors.
+     * @return the number, or null if it isn't changed.
+     */
+    public String getNumExecutors() {
+        return numExecutors;
+    }
+
+    /**
+     * Gets the labels that replace the labels of the slaves.
+     * @return the labels, or null if they aren't replaced.
+     */
+    public String getSetLabelString() {
+        return setLabelString;
+    }
+
+    /**
+     * Gets the labels to add.
+     * @return the labels as submitted, or null if none are added.
+     */
+    public String getAddLabelString() {
+        return addLabels == null ? null : addLabels.getText();
+    }
+
+    /**
+     * Gets the labels to remove.
+     * @return the labels as submitted, or null if none are removed.
+     */
+    public String getRemoveLabelString() {
+        return removeLabels == null ? null : removeLabels.getText();
+    }
+
+    /**
+     * Gets the new usage mode.
+     * @return the mode, or null if it isn't changed.
+     */
+    public Node.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the new launch method.
+     * @return the launcher, or null if it isn't changed.
+     */
+    public ComputerLauncher getLauncher() {
+        return launcher;
+    }
+
+    /**
+     * Gets the new availability.
+     * @return the retention strategy, or null if it isn't changed.
+     */
+    public RetentionStrategy getRetentionStrategy() {
+        return retentionStrategy;
+    }
+
+    /**
+     * A text setting split around its environment variables by {@link EnvironmentVariables}, so that expanding it
+     * for a slave is a single concatenation.
+     */
+    static final class Template {
+
+        private final String text;
+        private final String[] parts;
+
+        /**
+         * Standard constructor.
+         * @param text the text of the setting.
+         */
+        private Template(String text) {
+            this.text = text;
+            this.parts = EnvironmentVariables.splitAroundVariables(text);
+        }
+
+        /**
+         * Compiles a template.
+         * @param text the text of the setting, or null if it isn't changed.
+         * @return the template, or null if the setting isn't changed.
+         */
+        static Template compile(String text) {
+            if (text == null) {
+                return null;
+            }
+            return new Template(text);
+        }
+
+        /**
+         * Expands the template for a slave.
+         * @param slaveName the name of the slave.
+         * @return the expanded text, the same instance if there is no variable.
+         */
+        String expand(String slaveName) {
+            if (parts.length == 1) {
+                return text;
+            }
+            return EnvironmentVariables.fromVariables(slaveName, parts);
+        }
+
+        /**
+         * Gets the text of the setting.
+         * @return the text, with the variables.
+         */
+        String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Labels to add to or remove from the labels of the slaves.
+     * Without environment variables the labels are the same for every slave, and are tokenized and interned once,
+     * in the dictionary that was current when the delta was compiled. With environment variables the labels are
+     * expanded for each slave and compared as strings, since interning them would leave one label per slave in the
+     * dictionary.
+     */
+    static final class LabelDelta {
+
+        private final String text;
+        private final LabelDictionary dictionary;
+        private final Template template;
+        private final String[] tokens;
+        private final int[] ids;
+        private final LabelSet labelSet;
+
+        /**
+         * Standard constructor.
+         * @param text the labels.
+         * @param variables true if environment variables in the labels should be expanded for each slave.
+         */
+        private LabelDelta(String text, boolean variables) {
+            this.text = text;
+            this.dictionary = LabelDictionary.current();
+            if (variables) {
+                template = Template.compile(text);
+                tokens = null;
+                ids = null;
+                labelSet = null;
+            } else {
+                template = null;
+                tokens = LabelDictionary.split(text);
+                ids = new int[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    ids[i] = dictionary.intern(tokens[i]);
+                }
+                labelSet = LabelSet.parse(dictionary, text);
+            }
+        }
+
+        /**
+         * Compiles the labels of a form.
+         * @param text the labels, or null if there are none.
+         * @return the delta, or null if there are no labels.
+         */
+        static LabelDelta compile(String text) {
+            if (text == null) {
+                return null;
+            }
+            return new LabelDelta(text, EnvironmentVariables.containsEnvironmentVariables(text));
+        }
+
+        /**
+         * Compiles labels that are taken as they are, any environment variables have been expanded already.
+         * @param text the labels.
+         * @return the delta.
+         */
+        static LabelDelta literal(String text) {
+            return new LabelDelta(text, false);
+        }
+
+        /**
+         * Adds the labels to the labels of a slave. Makes sure each label appears only once.
+         * @param slaveName the name of the slave, to expand environment variables with.
+         * @param oldLabels the labels of the slave.
+         * @return the new labels.
+         */
+        String addTo(String slaveName, String oldLabels) {
+            StringBuilder newLabelsBuilder = new StringBuilder(oldLabels).append(" ");
+            if (template != null) {
+                Set<String> labels = new HashSet<String>(Arrays.asList(LabelDictionary.split(oldLabels)));
+                for (String addToken : LabelDictionary.split(template.expand(slaveName))) {
+                    if (labels.add(addToken)) {
+                        newLabelsBuilder.append(addToken).append(" ");
+                    }
+                }
+                return newLabelsBuilder.toString();
+            }
+            LabelSet.Union labels = new LabelSet.Union(dictionary).add(LabelSet.parse(dictionary, oldLabels));
+            for (int i = 0; i < tokens.length; i++) {
+                if (labels.add(ids[i])) {
+                    newLabelsBuilder.append(tokens[i]).append(" ");
+                }
+            }
+            return newLabelsBuilder.toString();
+        }
+
+        /**
+         * Removes the labels from the labels of a slave.
+         * @param slaveName the name of the slave, to expand environment variables with.
+         * @param oldLabels the labels of the slave.
+         * @return the new labels.
+         */
+        String removeFrom(String slaveName, String oldLabels) {
+            Set<String> expandedToRemove = null;
+            if (template != null) {
+                expandedToRemove = new HashSet<String>(
+                        Arrays.asList(LabelDictionary.split(template.expand(slaveName))));
+            }
+            StringBuilder newLabelsBuilder = new StringBuilder();
+            for (String currentToken : LabelDictionary.split(oldLabels)) {
+                boolean remove;
+                if (expandedToRemove != null) {
+                    remove = expandedToRemove.contains(currentToken);
+                } else {
+                    remove = labelSet.contains(currentToken);
+                }
+                if (!remove) {
+                    newLabelsBuilder.append(currentToken).append(" ");
+                }
+            }
+            return newLabelsBuilder.toString();
+        }
+
+        /**
+         * Gets the labels.
+         * @return the labels as submitted.
+         */
+        String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+
+import java.util.List;
+
+/**
+ * The settings that all DumbSlaves in a list have in common, aggregated in a single pass over the list.
+ * Every {@link Setting} is compared both exactly and with environment variables, the same way as
+ * {@link NodeList#getCommon(Setting)} always has, together with the mode and the launcher and availability types.
+ * A snapshot belongs to one state of its list and is replaced when the list is modified.
+ */
+final class CommonSettings {
+
+    private static final int SETTINGS = Setting.values().length;
+
+    private final int modCount;
+    private final DumbSlave firstSlave;
+    private final String[] common = new String[SETTINGS];
+    private Node.Mode mode;
+    private boolean sameLauncherType = true;
+    private boolean sameRetentionStrategyType = true;
+    private volatile ComputerLauncher launcher;
+    private volatile RetentionStrategy retentionStrategy;
+
+    /**
+     * Aggregates the common settings of a list.
+     * @param nodes the list.
+     * @param modCount the modification count of the list.
+     */
+    private CommonSettings(List<Node> nodes, int modCount) {
+        this.modCount = modCount;
+        DumbSlave first = null;
+        String[] firstStrings = new String[SETTINGS];
+        String[] environmentFirstStrings = new String[SETTINGS];
+        boolean[] exactSameStrings = new boolean[SETTINGS];
+        boolean[] environmentSameStrings = new boolean[SETTINGS];
+        Descriptor launcherDescriptor = null;
+        Descriptor retentionStrategyDescriptor = null;
+
+        for (Node node : nodes) {
+            if (!(node instanceof DumbSlave)) {
+                continue;
+            }
+            DumbSlave slave = (DumbSlave)node;
+            if (first == null) {
+                first = slave;
+                mode = slave.getMode();
+                launcherDescriptor = getDescriptor(slave.getLauncher());
+                retentionStrategyDescriptor = getDescriptor(slave.getRetentionStrategy());
+                for (Setting setting : Setting.values()) {
+                    int i = setting.ordinal();
+                    if (setting.isAvailable(slave)) {
+                        firstStrings[i] = setting.getSettingString(slave);
+                        environmentFirstStrings[i] = EnvironmentVariables.toVariables(slave, firstStrings[i]);
+                        exactSameStrings[i] = true;
+                        environmentSameStrings[i] = true;
+                    }
+                }
+                continue;
+            }
+            if (mode != null && !mode.equals(slave.getMode())) {
+                mode = null;
+            }
+            if (sameLauncherType && !equal(launcherDescriptor, getDescriptor(slave.getLauncher()))) {
+                sameLauncherType = false;
+            }
+            if (sameRetentionStrategyType
+                    && !equal(retentionStrategyDescriptor, getDescriptor(slave.getRetentionStrategy()))) {
+                sameRetentionStrategyType = false;
+            }
+            for (Setting setting : Setting.values()) {
+                int i = setting.ordinal();
+                if (!exactSameStrings[i] && !environmentSameStrings[i]) {
+                    continue;
+                }
+                if (!setting.isAvailable(slave)) {
+                    exactSameStrings[i] = false;
+                    environmentSameStrings[i] = false;
+                    continue;
+                }
+                String comparableString = setting.getSettingString(slave);
+                if (!equal(comparableString, firstStrings[i])) {
+                    exactSameStrings[i] = false;
+                }
+                if (environmentSameStrings[i]
+                        && !equal(EnvironmentVariables.toVariables(slave, comparableString),
+                        environmentFirstStrings[i])) {
+                    environmentSameStrings[i] = false;
+                }
+            }
+        }
+        for (int i = 0; i < SETTINGS; i++) {
+            if (exactSameStrings[i]) {
+                common[i] = firstStrings[i];
+            } else if (environmentSameStrings[i]) {
+                common[i] = environmentFirstStrings[i];
+            }
+        }
+        this.firstSlave = first;
+    }
+
+    /**
+     * Aggregates the common settings of a list.
+     * @param nodes the list.
+     * @param modCount the modification count of the list, to know when the snapshot is out of date.
+     * @return the snapshot.
+     */
+    static CommonSettings aggregate(List<Node> nodes, int modCount) {
+        return new CommonSettings(nodes, modCount);
+    }
+
+    /**
+     * Null safe equals.
+     * @param a one object.
+     * @param b the other object.
+     * @return true if both are null or equal.
+     */
+    private static boolean equal(Object a, Object b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Null safe getter of the descriptor of a launcher.
+     * @param launcher the launcher.
+     * @return the descriptor, or null if there was no launcher.
+     */
+    private static Descriptor getDescriptor(ComputerLauncher launcher) {
+        if (launcher == null) {
+            return null;
+        }
+        return launcher.getDescriptor();
+    }
+
+    /**
+     * Null safe getter of the descriptor of an availability.
+     * @param strategy the availability.
+     * @return the descriptor, or null if there was no availability.
+     */
+    private static Descriptor getDescriptor(RetentionStrategy strategy) {
+        if (strategy == null) {
+            return null;
+        }
+        return strategy.getDescriptor();
+    }
+
+    /**
+     * Gets the modification count of the list when the snapshot was taken.
+     * @return the modification count.
+     */
+    int getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Gets the first DumbSlave in the list.
+     * @return the first slave, or null if there were no DumbSlaves.
+     */
+    DumbSlave getFirstSlave() {
+        return firstSlave;
+    }
+
+    /**
+     * Gets the common setting of a type.
+     * @param setting the setting type.
+     * @return the common setting string, or null if the slaves differ or some slave doesn't have the setting.
+     */
+    String get(Setting setting) {
+        return common[setting.ordinal()];
+    }
+
+    /**
+     * Gets the common mode.
+     * @return the mode, or null if the slaves differ.
+     */
+    Node.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Checks if all slaves have the same type of launcher.
+     * @return true if they have.
+     */
+    boolean isSameLauncherType() {
+        return sameLauncherType;
+    }
+
+    /**
+     * Checks if all slaves have the same type of availability.
+     * @return true if they have.
+     */
+    boolean isSameRetentionStrategyType() {
+        return sameRetentionStrategyType;
+    }
+
+    /**
+     * Gets the common launcher, once it has been created from the common settings.
+     * @return the launcher, or null if it hasn't been created yet.
+     */
+    ComputerLauncher getLauncher() {
+        return launcher;
+    }
+
+    /**
+     * Keeps the launcher created from the common settings.
+     * @param launcher the launcher.
+     */
+    void setLauncher(ComputerLauncher launcher) {
+        this.launcher = launcher;
+    }
+
+    /**
+     * Gets the common availability, once it has been created from the common settings.
+     * @return the availability, or null if it hasn't been created yet.
+     */
+    RetentionStrategy getRetentionStrategy() {
+        return retentionStrategy;
+    }
+
+    /**
+     * Keeps the availability created from the common settings.
+     * @param retentionStrategy the availability.
+     */
+    void setRetentionStrategy(RetentionStrategy retentionStrategy) {
+        this.retentionStrategy = retentionStrategy;
+    }
+}
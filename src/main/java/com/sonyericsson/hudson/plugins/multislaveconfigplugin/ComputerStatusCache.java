@@ -0,0 +1,162 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the status icons of the computers, for the rows of the search results.
+ * A status is looked up once and then kept until the computer is launched, goes online or offline, or the
+ * {@link NodeListVersion} changes. Marking a computer temporarily offline doesn't notify any listener, so a status
+ * is also looked up again when it is older than {@link #MAX_AGE_MILLIS}.
+ */
+public final class ComputerStatusCache {
+
+    /**
+     * How long a status is trusted without any event about the computer.
+     */
+    static final long MAX_AGE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The status of slaves that have no computer, since they have no executors.
+     */
+    static final Status NO_COMPUTER = new Status("computer-x.png", "[offline]", Long.MAX_VALUE);
+
+    private static final ConcurrentMap<Computer, Status> STATUSES = new ConcurrentHashMap<Computer, Status>();
+    private static volatile long version = -1;
+
+    /**
+     * Utility class.
+     */
+    private ComputerStatusCache() {
+    }
+
+    /**
+     * Gets the status of a computer.
+     * @param computer the computer, or null if the slave has none.
+     * @return the status.
+     */
+    public static Status get(Computer computer) {
+        if (computer == null) {
+            return NO_COMPUTER;
+        }
+        long currentVersion = NodeListVersion.get();
+        if (currentVersion != version) {
+            //Computers are replaced or removed together with their nodes
+            STATUSES.clear();
+            version = currentVersion;
+        }
+        long now = System.currentTimeMillis();
+        Status status = STATUSES.get(computer);
+        if (status == null || now - status.lookedUp > MAX_AGE_MILLIS) {
+            status = new Status(computer.getIcon(), computer.getIconAltText(), now);
+            STATUSES.put(computer, status);
+        }
+        return status;
+    }
+
+    /**
+     * Forgets the status of a computer, it will be looked up again the next time it's needed.
+     * @param computer the computer.
+     */
+    public static void invalidate(Computer computer) {
+        if (computer != null) {
+            STATUSES.remove(computer);
+        }
+    }
+
+    /**
+     * Forgets the status of all computers.
+     */
+    public static void clear() {
+        STATUSES.clear();
+    }
+
+    /**
+     * The status icon of a computer.
+     */
+    public static final class Status {
+
+        private final String icon;
+        private final String iconAltText;
+        private final long lookedUp;
+
+        /**
+         * Standard constructor.
+         * @param icon the icon file name.
+         * @param iconAltText the alternative text of the icon.
+         * @param lookedUp when the status was looked up, in milliseconds.
+         */
+        Status(String icon, String iconAltText, long lookedUp) {
+            this.icon = icon;
+            this.iconAltText = iconAltText;
+            this.lookedUp = lookedUp;
+        }
+
+        /**
+         * Gets the icon file name.
+         * @return the icon.
+         */
+        public String getIcon() {
+            return icon;
+        }
+
+        /**
+         * Gets the alternative text of the icon.
+         * @return the text.
+         */
+        public String getIconAltText() {
+            return iconAltText;
+        }
+    }
+
+    /**
+     * Forgets the status of computers as soon as it changes.
+     */
+    @Extension
+    public static class StatusListener extends ComputerListener {
+        @Override
+        public void preLaunch(Computer c, TaskListener taskListener) {
+            invalidate(c);
+        }
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            invalidate(c);
+        }
+
+        @Override
+        public void onOffline(Computer c) {
+            invalidate(c);
+        }
+    }
+}
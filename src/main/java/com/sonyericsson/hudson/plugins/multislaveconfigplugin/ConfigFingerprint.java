@@ -0,0 +1,160 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Hudson;
+import hudson.model.Slave;
+import hudson.os.windows.ManagedWindowsServiceLauncher;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SimpleScheduledRetentionStrategy;
+
+import java.util.List;
+
+/**
+ * The configuration of a slave, as far as this plugin can change it, to tell if a change leaves a slave as it was.
+ * The text settings are joined from the {@link Setting} accessors. The launch method and the availability are the
+ * same if they are the same instance, or of the same type with the same settings. Types the {@link Setting}
+ * accessors don't cover are compared by their serialized form, which is only needed when they have been replaced.
+ */
+final class ConfigFingerprint {
+
+    /**
+     * Separates the settings, a character that can't be typed in a text box.
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Marks a setting that isn't available for the launch method or availability of the slave.
+     */
+    private static final String NOT_AVAILABLE = "\u0001";
+
+    private final String settings;
+    private final Object launcher;
+    private final Object retentionStrategy;
+    private final List<? extends NodeProperty<?>> nodeProperties;
+
+    /**
+     * Standard constructor.
+     * @param settings the joined text settings.
+     * @param launcher the launch method.
+     * @param retentionStrategy the availability.
+     * @param nodeProperties the node properties.
+     */
+    private ConfigFingerprint(String settings, Object launcher, Object retentionStrategy,
+                              List<? extends NodeProperty<?>> nodeProperties) {
+        this.settings = settings;
+        this.launcher = launcher;
+        this.retentionStrategy = retentionStrategy;
+        this.nodeProperties = nodeProperties;
+    }
+
+    /**
+     * Takes the fingerprint of a slave.
+     * @param slave the slave.
+     * @return the fingerprint.
+     */
+    static ConfigFingerprint of(Slave slave) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(slave.getNodeName()).append(SEPARATOR).append(slave.getMode());
+        for (Setting setting : Setting.values()) {
+            builder.append(SEPARATOR);
+            if (setting.isAvailable(slave)) {
+                builder.append(setting.getSettingString(slave));
+            } else {
+                builder.append(NOT_AVAILABLE);
+            }
+        }
+        return new ConfigFingerprint(builder.toString(), slave.getLauncher(), slave.getRetentionStrategy(),
+                slave.getNodeProperties().toList());
+    }
+
+    /**
+     * Checks if another fingerprint is of the same configuration.
+     * @param other the other fingerprint.
+     * @return true if the configurations are the same.
+     */
+    boolean matches(ConfigFingerprint other) {
+        return settings.equals(other.settings)
+                && sameState(launcher, other.launcher)
+                && sameState(retentionStrategy, other.retentionStrategy)
+                && sameElements(nodeProperties, other.nodeProperties);
+    }
+
+    /**
+     * Checks if two launch methods or availabilities have the same state.
+     * @param object one of them.
+     * @param other the other one.
+     * @return true if they are the same.
+     */
+    private static boolean sameState(Object object, Object other) {
+        if (object == other) {
+            return true;
+        }
+        if (object == null || other == null || object.getClass() != other.getClass()) {
+            return false;
+        }
+        if (isCoveredBySettings(object)) {
+            //The settings have been compared already
+            return true;
+        }
+        return Hudson.XSTREAM.toXML(object).equals(Hudson.XSTREAM.toXML(other));
+    }
+
+    /**
+     * Checks if all the state of a launch method or availability is in the {@link Setting} accessors.
+     * @param object the launch method or availability.
+     * @return true if it is.
+     */
+    private static boolean isCoveredBySettings(Object object) {
+        Class<?> type = object.getClass();
+        return type == CommandLauncher.class
+                || type == JNLPLauncher.class
+                || type == ManagedWindowsServiceLauncher.class
+                || type == RetentionStrategy.Always.class
+                || type == RetentionStrategy.Demand.class
+                || type == SimpleScheduledRetentionStrategy.class;
+    }
+
+    /**
+     * Checks if two lists hold the same instances in the same order.
+     * @param list one of the lists.
+     * @param other the other list.
+     * @return true if they do.
+     */
+    private static boolean sameElements(List<?> list, List<?> other) {
+        if (list.size() != other.size()) {
+            return false;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) != other.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -36,6 +36,7 @@ import hudson.slaves.JNLPLauncher;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * This class is used for interpreting environment variables.
@@ -45,6 +46,11 @@ public class EnvironmentVariables {
 
     private static final Logger logger = Logger.getLogger(EnvironmentVariables.class.getName());
 
+    /**
+     * The variable for the node name.
+     */
+    private static final String NAME = "$NAME";
+
     /**
      * Not allowing to create instances of this class.
      */
@@ -95,7 +101,7 @@ public class EnvironmentVariables {
      */
     public static String toVariables(String slaveName, String interpretString) {
         if (interpretString != null) {
-            interpretString = interpretString.replace(slaveName, "$NAME");
+            interpretString = interpretString.replace(slaveName, NAME);
             //More environment variables to interpret..
         }
         return interpretString;
@@ -112,39 +118,64 @@ public class EnvironmentVariables {
      */
     public static String fromVariables(String slaveName, String interpretString) {
         if (interpretString != null) {
-            interpretString = interpretString.replace("$NAME", slaveName);
+            interpretString = interpretString.replace(NAME, slaveName);
             //More environment variables to interpret..
         }
         return interpretString;
     }
 
+    /**
+     * Splits the argument string around its environment variables, so that it can be interpreted for many slaves
+     * with {@link #fromVariables(String, String[])} without searching it again.
+     * @param interpretString the string to split
+     * @return the text between the variables, a single part if the string has none
+     */
+    public static String[] splitAroundVariables(String interpretString) {
+        return interpretString.split(Pattern.quote(NAME), -1);
+        //More environment variables to interpret..
+    }
+
+    /**
+     * Switches from environment variables in a string split by {@link #splitAroundVariables(String)}.
+     * @param slaveName the name of the slave to base the environment variables on
+     * @param parts the text between the variables
+     * @return interpreted string
+     */
+    public static String fromVariables(String slaveName, String[] parts) {
+        int length = (parts.length - 1) * slaveName.length();
+        for (String part : parts) {
+            length += part.length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        builder.append(parts[0]);
+        for (int i = 1; i < parts.length; i++) {
+            builder.append(slaveName).append(parts[i]);
+        }
+        return builder.toString();
+    }
+
     /**
      * Checks if the argument string contains environment variables, for example $NAME.
      * @param interpretString the string to check for environment variables
      * @return true or false if the string contained environment variables
      */
     public static boolean containsEnvironmentVariables(String interpretString) {
-        return interpretString.contains("$NAME");
+        return interpretString.contains(NAME);
         //More environment variables to interpret..
     }
 
     /**
-     * Switches from environment variables in most configuration fields for the slave and returns a new slave.
-     * For example, if the description contains $NAME,
-     * a new slave with the actual node name as description will be returned.
-     * @param slave the slave to interpret environment variables on
-     * @return a new slave with environment variables interpreted, otherwise same settings
+     * Switches from environment variables in the settings of a launcher.
+     * For example, if the launch command contains $NAME, a new launcher with the actual node name will be returned.
+     * @param slaveName the name of the slave to base the environment variables on
+     * @param launcher the launcher to interpret environment variables on
+     * @return a new launcher with environment variables interpreted, or the same launcher if it had none
      */
-    public static DumbSlave fromVariables(DumbSlave slave) {
-        ComputerLauncher launcher = slave.getLauncher();
-        String description = slave.getNodeDescription();
-        String remoteFS = slave.getRemoteFS();
-        String labels = slave.getLabelString();
-
+    public static ComputerLauncher launcherFromVariables(String slaveName, ComputerLauncher launcher) {
         if (launcher instanceof CommandLauncher) {
             String command = ((CommandLauncher)launcher).getCommand();
             if (containsEnvironmentVariables(command)) {
-                command = fromVariables(slave, command);
+                command = fromVariables(slaveName, command);
                 launcher = new CommandLauncher(command);
             }
         } else if (launcher instanceof ManagedWindowsServiceLauncher) {
@@ -152,8 +183,8 @@ public class EnvironmentVariables {
             String userName = ((ManagedWindowsServiceLauncher)launcher).userName;
             if (containsEnvironmentVariables(password)
                     || EnvironmentVariables.containsEnvironmentVariables(userName)) {
-                password = fromVariables(slave, password);
-                userName = fromVariables(slave, userName);
+                password = fromVariables(slaveName, password);
+                userName = fromVariables(slaveName, userName);
                 launcher = new ManagedWindowsServiceLauncher(userName, password);
             }
         } else if (launcher instanceof JNLPLauncher) {
@@ -161,11 +192,27 @@ public class EnvironmentVariables {
             String vmargs = Util.fixNull(((JNLPLauncher)launcher).vmargs);
             if (containsEnvironmentVariables(tunnel)
                     || containsEnvironmentVariables(vmargs)) {
-                tunnel = fromVariables(slave, tunnel);
-                vmargs = fromVariables(slave, vmargs);
+                tunnel = fromVariables(slaveName, tunnel);
+                vmargs = fromVariables(slaveName, vmargs);
                 launcher = new JNLPLauncher(tunnel, vmargs);
             }
         }
+        return launcher;
+    }
+
+    /**
+     * Switches from environment variables in most configuration fields for the slave and returns a new slave.
+     * For example, if the description contains $NAME,
+     * a new slave with the actual node name as description will be returned.
+     * @param slave the slave to interpret environment variables on
+     * @return a new slave with environment variables interpreted, otherwise same settings
+     */
+    public static DumbSlave fromVariables(DumbSlave slave) {
+        ComputerLauncher launcher = launcherFromVariables(slave.getNodeName(), slave.getLauncher());
+        String description = slave.getNodeDescription();
+        String remoteFS = slave.getRemoteFS();
+        String labels = slave.getLabelString();
+
         description = fromVariables(slave, description);
         remoteFS = fromVariables(slave, remoteFS);
         labels = fromVariables(slave, labels);
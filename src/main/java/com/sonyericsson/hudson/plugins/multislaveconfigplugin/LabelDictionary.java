@@ -0,0 +1,178 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns every label to a small integer id, so that the labels of a node can be held as a {@link LabelSet}.
+ * Each distinct label is kept once, however many slaves carry it. Ids are never reused within a dictionary, so a
+ * dictionary only grows with the number of distinct labels it has seen, including the labels of deleted slaves.
+ * To bound that, the {@link SlaveIndex} replaces the current dictionary with a new one, holding only the labels
+ * of the indexed slaves, when the labels in use are less than half of it, see {@link #isWasteful(int)}.
+ * Ids and label sets are only meaningful together with the dictionary they came from, so anyone holding on to
+ * them keeps the dictionary they started with.
+ */
+final class LabelDictionary {
+
+    /**
+     * The smallest dictionary that is ever replaced, smaller ones are kept whatever they hold.
+     */
+    static final int MIN_RENEW_SIZE = 1024;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static volatile LabelDictionary current = new LabelDictionary();
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] labels = new String[INITIAL_CAPACITY];
+    private volatile String[] searchableLabels = new String[INITIAL_CAPACITY];
+    private volatile int size;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    LabelDictionary() {
+    }
+
+    /**
+     * Gets the dictionary new ids should come from.
+     * @return the current dictionary.
+     */
+    static LabelDictionary current() {
+        return current;
+    }
+
+    /**
+     * Replaces the current dictionary with an empty one. Dictionaries already handed out keep working.
+     * @return the new current dictionary.
+     */
+    static LabelDictionary renew() {
+        LabelDictionary renewed = new LabelDictionary();
+        current = renewed;
+        return renewed;
+    }
+
+    /**
+     * Gets the id of a label, giving it a new id if it hasn't been seen before.
+     * @param label the label.
+     * @return the id.
+     */
+    int intern(String label) {
+        Integer id = ids.get(label);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(label);
+            if (id == null) {
+                if (size == labels.length) {
+                    labels = Arrays.copyOf(labels, size * 2);
+                    searchableLabels = Arrays.copyOf(searchableLabels, size * 2);
+                }
+                labels[size] = label;
+                searchableLabels[size] = SearchSlaves.makeSearchable(label);
+                id = size++;
+                ids.put(label, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Gets the id of a label without interning it.
+     * @param label the label.
+     * @return the id, or -1 if the label isn't in this dictionary.
+     */
+    int lookup(String label) {
+        Integer id = ids.get(label);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Gets the label with an id.
+     * @param id the id.
+     * @return the interned label.
+     */
+    String getLabel(int id) {
+        return labels[id];
+    }
+
+    /**
+     * Gets the label with an id in the lower case form that searches match against.
+     * @param id the id.
+     * @return the lower case label.
+     */
+    String getSearchableLabel(int id) {
+        return searchableLabels[id];
+    }
+
+    /**
+     * Gets the number of labels in this dictionary.
+     * @return the number of labels.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Checks if this dictionary has grown large enough, compared to the labels still in use, to be replaced.
+     * @param labelsInUse the number of distinct labels still carried by any slave.
+     * @return true if it's at least {@link #MIN_RENEW_SIZE} and less than half of it is in use.
+     */
+    boolean isWasteful(int labelsInUse) {
+        int labelCount = size;
+        return labelCount >= MIN_RENEW_SIZE && labelsInUse * 2 < labelCount;
+    }
+
+    /**
+     * Splits a label string on whitespace, without a regular expression.
+     * @param labelString the labels separated by whitespace, can be null.
+     * @return the labels, with empty labels left out.
+     */
+    static String[] split(String labelString) {
+        if (labelString == null) {
+            return new String[0];
+        }
+        String[] tokens = new String[labelString.length() / 2 + 1];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= labelString.length(); i++) {
+            boolean whitespace = i == labelString.length() || Character.isWhitespace(labelString.charAt(i));
+            if (whitespace && start >= 0) {
+                tokens[count++] = labelString.substring(start, i);
+                start = -1;
+            } else if (!whitespace && start < 0) {
+                start = i;
+            }
+        }
+        return Arrays.copyOf(tokens, count);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of labels, as a bitset over the ids of a {@link LabelDictionary}.
+ * Adding, removing and checking labels are word-wise bit operations, only sets from the same dictionary can be
+ * combined.
+ */
+final class LabelSet {
+
+    /**
+     * The set without labels.
+     */
+    static final LabelSet EMPTY = new LabelSet(null, new long[0]);
+
+    private static final int WORD_BITS = 64;
+
+    private final LabelDictionary dictionary;
+    private final long[] words;
+
+    /**
+     * Standard constructor.
+     * @param dictionary the dictionary the ids are from, null for the empty set.
+     * @param words the bits, without trailing zero words.
+     */
+    private LabelSet(LabelDictionary dictionary, long[] words) {
+        this.dictionary = dictionary;
+        this.words = words;
+    }
+
+    /**
+     * Creates the set of the labels in a label string, interning every label.
+     * @param dictionary the dictionary to intern the labels in.
+     * @param labelString the labels separated by whitespace, can be null.
+     * @return the set.
+     */
+    static LabelSet parse(LabelDictionary dictionary, String labelString) {
+        String[] labels = LabelDictionary.split(labelString);
+        if (labels.length == 0) {
+            return EMPTY;
+        }
+        long[] words = new long[0];
+        for (String label : labels) {
+            int id = dictionary.intern(label);
+            int word = id / WORD_BITS;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            }
+            words[word] |= 1L << (id % WORD_BITS);
+        }
+        return new LabelSet(dictionary, words);
+    }
+
+    /**
+     * Checks if a label is in this set.
+     * @param label the label.
+     * @return true if it is.
+     */
+    boolean contains(String label) {
+        if (dictionary == null) {
+            return false;
+        }
+        int id = dictionary.lookup(label);
+        return id >= 0 && contains(id);
+    }
+
+    /**
+     * Checks if the ids of this set are from a dictionary. The empty set is from every dictionary.
+     * @param labelDictionary the dictionary.
+     * @return true if they are.
+     */
+    boolean isFrom(LabelDictionary labelDictionary) {
+        return dictionary == null || dictionary == labelDictionary;
+    }
+
+    /**
+     * Checks if a label id is in this set.
+     * @param id the id of the label.
+     * @return true if it is.
+     */
+    boolean contains(int id) {
+        int word = id / WORD_BITS;
+        return word < words.length && (words[word] & (1L << (id % WORD_BITS))) != 0;
+    }
+
+    /**
+     * Gets the next label id in this set, to iterate over the set.
+     * @param from the id to start looking at.
+     * @return the first id in the set that is at least from, or -1 if there is none.
+     */
+    int nextId(int from) {
+        int word = from / WORD_BITS;
+        if (word >= words.length) {
+            return -1;
+        }
+        long bits = words[word] & (-1L << (from % WORD_BITS));
+        while (bits == 0) {
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+        return word * WORD_BITS + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Checks if all labels in another set are in this set.
+     * @param other the other set.
+     * @return true if they all are.
+     */
+    boolean containsAll(LabelSet other) {
+        for (int i = 0; i < other.words.length; i++) {
+            long word = 0;
+            if (i < words.length) {
+                word = words[i];
+            }
+            if ((other.words[i] & ~word) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accumulates the union of many sets in place, without a new set for every step.
+     */
+    static final class Union {
+
+        private final LabelDictionary dictionary;
+        private long[] words = new long[0];
+
+        /**
+         * Standard constructor.
+         * @param dictionary the dictionary the ids of all added labels are from.
+         */
+        Union(LabelDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * Adds the labels of a set.
+         * @param set the set.
+         * @return this union.
+         */
+        Union add(LabelSet set) {
+            if (set.words.length > words.length) {
+                words = Arrays.copyOf(words, set.words.length);
+            }
+            for (int i = 0; i < set.words.length; i++) {
+                words[i] |= set.words[i];
+            }
+            return this;
+        }
+
+        /**
+         * Adds a label.
+         * @param id the id of the label.
+         * @return true if the label wasn't in the union before.
+         */
+        boolean add(int id) {
+            int word = id / WORD_BITS;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, word + 1);
+            }
+            long bit = 1L << (id % WORD_BITS);
+            boolean added = (words[word] & bit) == 0;
+            words[word] |= bit;
+            return added;
+        }
+
+        /**
+         * Gets the union so far.
+         * @return the union.
+         */
+        LabelSet toLabelSet() {
+            return new LabelSet(dictionary, words.clone());
+        }
+    }
+}
@@ -25,6 +25,8 @@
 package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
 
 import antlr.ANTLRException;
+import hudson.BulkChange;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Failure;
 import hudson.model.Hudson;
@@ -34,6 +36,7 @@ import hudson.slaves.CommandLauncher;
 import hudson.slaves.ComputerLauncher;
 import hudson.slaves.DumbSlave;
 import hudson.slaves.JNLPLauncher;
+import hudson.slaves.OfflineCause;
 import hudson.slaves.RetentionStrategy;
 import hudson.slaves.SimpleScheduledRetentionStrategy;
 import net.sf.json.JSONArray;
@@ -42,11 +45,14 @@ import org.kohsuke.stapler.Stapler;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,8 +65,17 @@ import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.Setting.*;
  */
 public class NodeList extends ArrayList<Node> {
 
+    /**
+     * Lock held while the Jenkins node list is read, changed and written back by this plugin.
+     */
+    static final Object NODE_LIST_LOCK = new Object();
+
     private static final Logger logger = Logger.getLogger(NodeList.class.getName());
 
+    private transient volatile CommonSettings commonSettings;
+    private transient int existingModCount;
+    private transient volatile long existingVersion = -1;
+
     /**
      * Constructor to help adding existing nodes to a new list.
      * @param list the nodes to be added
@@ -77,6 +92,14 @@ public class NodeList extends ArrayList<Node> {
         super();
     }
 
+    /**
+     * Creates an empty list with room for the given number of nodes.
+     * @param initialCapacity the expected number of nodes
+     */
+    public NodeList(int initialCapacity) {
+        super(initialCapacity);
+    }
+
     /**
      * Checks if there are any DumbSlaves in the list instead of any Node.
      * @return if are any slaves in the list
@@ -98,6 +121,16 @@ public class NodeList extends ArrayList<Node> {
      * @return sorted list.
      */
     public NodeList sortByName() {
+        return sortBy(SortColumn.NAME, false);
+    }
+
+    /**
+     * Sorts this list by a column of the slave table. Nodes with the same value in the column are sorted by name.
+     * @param column the column to sort by.
+     * @param descending true to sort in descending order.
+     * @return sorted list.
+     */
+    public NodeList sortBy(final SortColumn column, final boolean descending) {
         Collections.sort(this, new Comparator<Node>() {
             public int compare(Node n1, Node n2) {
                 if (n1 == null && n2 == null) {
@@ -109,7 +142,14 @@ public class NodeList extends ArrayList<Node> {
                 if (n2 == null) {
                     return 1;
                 }
-                return n1.getNodeName().compareTo(n2.getNodeName());
+                int result = column.compare(n1, n2);
+                if (result == 0) {
+                    result = n1.getNodeName().compareTo(n2.getNodeName());
+                }
+                if (descending) {
+                    return -result;
+                }
+                return result;
             }
         });
         return this;
@@ -132,15 +172,28 @@ public class NodeList extends ArrayList<Node> {
      * @return JSONArray with matching slave-representations from this NodeList.
      */
     public JSONArray toJSONArray() {
+        return toJSONArray(0, size());
+    }
+
+    /**
+     * Represents a window of this list as a JSONArray.
+     * @param offset the index of the first node in the window.
+     * @param limit the maximum number of nodes in the window.
+     * @return JSONArray with the slave-representations in the window.
+     */
+    public JSONArray toJSONArray(int offset, int limit) {
         JSONArray slaveJSONArray = new JSONArray();
-        for (Node node : this) {
+        int end = (int)Math.min((long)Math.max(offset, 0) + Math.max(limit, 0), size());
+        for (int i = Math.max(offset, 0); i < end; i++) {
+            Node node = get(i);
             if (node instanceof DumbSlave) {
                 DumbSlave slave = (DumbSlave)node;
                 JSONObject slaveRepresentation = new JSONObject();
+                ComputerStatusCache.Status status = ComputerStatusCache.get(slave.getComputer());
 
                 slaveRepresentation.put("name", slave.getNodeName());
-                slaveRepresentation.put("icon", slave.getComputer().getIcon());
-                slaveRepresentation.put("iconAltText", slave.getComputer().getIconAltText());
+                slaveRepresentation.put("icon", status.getIcon());
+                slaveRepresentation.put("iconAltText", status.getIconAltText());
                 slaveRepresentation.put("labels", slave.getLabelString());
                 slaveRepresentation.put("executors", slave.getNumExecutors());
                 slaveRepresentation.put("remoteFS", slave.getRemoteFS());
@@ -169,15 +222,24 @@ public class NodeList extends ArrayList<Node> {
 
     /**
      * Checks if the slaves in this list still exist in the master nodelist.
+     * Once they have been found, they are only looked up again when the {@link NodeListVersion} or this list
+     * has changed.
      * @return if all the slaves still exist or not
      */
     protected boolean slavesStillExist() {
+        long version = NodeListVersion.get();
+        int currentModCount = modCount;
+        if (version == existingVersion && currentModCount == existingModCount) {
+            return true;
+        }
         Hudson app = Hudson.getInstance();
         for (Node node : this) {
             if (app.getNode(node.getNodeName()) == null) {
                 return false;
             }
         }
+        existingModCount = currentModCount;
+        existingVersion = version;
         return true;
     }
 
@@ -186,58 +248,72 @@ public class NodeList extends ArrayList<Node> {
      * @param settings the settings to make as a hashmap
      * @return The changed list
      */
-    protected synchronized NodeList changeSettings(HashMap settings) {
-        //The nodes that are not in the newNodeList
-        List<Node> complementaryNodes = getComplementaryNodes();
-        List<Node> newNodeList = new ArrayList<Node>(complementaryNodes);
+    protected NodeList changeSettings(HashMap settings) {
+        return changeSettings(ChangeSet.compile(settings), new ApplyReport());
+    }
 
-        for (Node node : this) {
-            String newDescription = (String)settings.get("description");
-            String newRemoteFS = (String)settings.get("remoteFS");
-            String newNumExecutors = (String)settings.get("numExecutors");
-            String newSetLabels = (String)settings.get("setLabelString");
-            String newLabelsToAdd = (String)settings.get("addLabelString");
-            String newLabelsToRemove = (String)settings.get("removeLabelString");
-            Node.Mode newMode = (Node.Mode)settings.get("mode");
-            ComputerLauncher newLauncher = (ComputerLauncher)settings.get("launcher");
-            RetentionStrategy newRetentionStrategy = (RetentionStrategy)settings.get("retentionStrategy");
+    /**
+     * Changes the settings for all nodes in the list.
+     * @param settings the settings to make as a hashmap
+     * @param report where to record the timing of the change
+     * @return The changed list
+     */
+    protected NodeList changeSettings(HashMap settings, ApplyReport report) {
+        return changeSettings(ChangeSet.compile(settings), report);
+    }
+
+    /**
+     * Changes the settings for all nodes in the list.
+     * All changed slaves are put into the Jenkins node list in one step, and the configuration is saved once.
+     * The slaves are looked up by name, so the settings are applied to the registered slave even if it has been
+     * reconfigured since it was selected, and each changed slave takes the place of the registered slave with its
+     * name. Nodes that are not in this list are kept as the same instances, so their computers are left alone.
+     * So are registered slaves that the settings would leave as they are, see {@link ConfigFingerprint}, and if no
+     * slave changes the node list isn't saved at all. Each changed slave is recorded as done once the node list
+     * has been saved.
+     * @param changes the settings to change
+     * @param report where to record the timing of the change
+     * @return The changed list
+     */
+    protected NodeList changeSettings(ChangeSet changes, ApplyReport report) {
+        synchronized (NODE_LIST_LOCK) {
+            long start = System.nanoTime();
+            NodeList changedList = changeSettingsLocked(changes, report);
+            report.setTotalNanos(System.nanoTime() - start);
+            logger.log(Level.FINE, "Applied settings, " + report);
+            return changedList;
+        }
+    }
+
+    /**
+     * Changes the settings for all nodes in the list, while holding {@link #NODE_LIST_LOCK}.
+     * @param changes the settings to change
+     * @param report where to record the timing of the change
+     * @return The changed list
+     */
+    private NodeList changeSettingsLocked(ChangeSet changes, ApplyReport report) {
+        //The changed slaves, by the names of the slaves they replace, in the order of this list
+        Map<String, Node> replacements = new LinkedHashMap<String, Node>(size());
+        long[] nodeNanos = new long[size()];
+        NodeList changedList = new NodeList(size());
+        List<Node> registeredNodes = Hudson.getInstance().getNodes();
+        Map<String, Node> registered = new HashMap<String, Node>(registeredNodes.size());
+        for (Node node : registeredNodes) {
+            registered.put(node.getNodeName(), node);
+        }
 
+        for (Node node : this) {
+            long nodeStart = System.nanoTime();
             if (node instanceof DumbSlave) {
+                Node registeredNode = registered.get(node.getNodeName());
                 DumbSlave slave = (DumbSlave)node;
-
-                if (newDescription == null) {
-                    newDescription = slave.getNodeDescription();
-                }
-                if (newRemoteFS == null) {
-                    newRemoteFS = slave.getRemoteFS();
-                }
-                if (newNumExecutors == null) {
-                    newNumExecutors = String.valueOf(slave.getNumExecutors());
-                }
-                if (newMode == null) {
-                    newMode = slave.getMode();
+                if (registeredNode instanceof DumbSlave) {
+                    slave = (DumbSlave)registeredNode;
                 }
-                if (newSetLabels == null) {
-                    newSetLabels = slave.getLabelString();
-                }
-                if (newLauncher == null) {
-                    newLauncher = slave.getLauncher();
-                }
-                if (newRetentionStrategy == null) {
-                    newRetentionStrategy = slave.getRetentionStrategy();
-                }
-
-                newLabelsToAdd = EnvironmentVariables.fromVariables(slave, newLabelsToAdd);
-                newLabelsToRemove = EnvironmentVariables.fromVariables(slave, newLabelsToRemove);
-                newSetLabels = addLabels(newLabelsToAdd, newSetLabels);
-                newSetLabels = removeLabels(newLabelsToRemove, newSetLabels);
-
                 DumbSlave changedSlave;
 
                 try {
-                    changedSlave = new DumbSlave(slave.getNodeName(), newDescription, newRemoteFS, newNumExecutors,
-                            newMode, newSetLabels, newLauncher, newRetentionStrategy,
-                            slave.getNodeProperties().toList());
+                    changedSlave = changes.apply(slave);
                 } catch (Descriptor.FormException e) {
                     logger.log(Level.WARNING, "Failed to edit slave " + slave.getNodeName()
                             + " cause: " + e.getMessage());
@@ -247,26 +323,154 @@ public class NodeList extends ArrayList<Node> {
                             + " cause: " + e.getMessage());
                     throw new Failure(Messages.FailedToEditSlave(slave.getNodeName()));
                 }
-                changedSlave = EnvironmentVariables.fromVariables(changedSlave);
-                try {
-                    newNodeList.add(changedSlave);
-                } catch (Exception e) {
-                    logger.log(Level.WARNING, "Failed to edit slave " + changedSlave.getNodeName()
-                            + " cause: " + e.getMessage());
-                    throw new Failure(Messages.FailedToEditSlave(changedSlave.getNodeName()));
+                if (registeredNode == slave
+                        && ConfigFingerprint.of(changedSlave).matches(ConfigFingerprint.of(slave))) {
+                    //The change leaves the registered slave as it is, so it is kept and its computer left alone
+                    changedList.add(slave);
+                    report.nodeSkipped(slave.getNodeName());
+                } else {
+                    nodeNanos[replacements.size()] = System.nanoTime() - nodeStart;
+                    replacements.put(slave.getNodeName(), changedSlave);
+                    changedList.add(changedSlave);
                 }
             } else { //Not Dumbslave, dont't touch it.
+                changedList.add(node);
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            //Nothing to commit
+            return changedList;
+        }
+        //Recorded once the node list has been saved
+        List<Node> changedNodes = new ArrayList<Node>(replacements.values());
+        List<Node> newNodeList = new ArrayList<Node>(registeredNodes.size());
+        for (Node node : registeredNodes) {
+            Node replacement = replacements.remove(node.getNodeName());
+            if (replacement != null) {
+                newNodeList.add(replacement);
+            } else {
                 newNodeList.add(node);
             }
         }
+        //Slaves that weren't registered are added last
+        newNodeList.addAll(replacements.values());
+        long commitStart = System.nanoTime();
         try {
-            Hudson.getInstance().setNodes(newNodeList);
+            commitNodes(newNodeList);
         } catch (IOException e) {
             logger.log(Level.WARNING, "Failed to edit nodelist!");
+            for (Node node : changedNodes) {
+                report.nodeFailed(node.getNodeName());
+            }
             throw new Failure(Messages.FailedToEditNodeList());
         }
-        newNodeList.removeAll(complementaryNodes);
-        return new NodeList(newNodeList);
+        report.addCommitNanos(System.nanoTime() - commitStart);
+        for (int i = 0; i < changedNodes.size(); i++) {
+            report.nodeDone(changedNodes.get(i).getNodeName(), nodeNanos[i]);
+        }
+        return changedList;
+    }
+
+    /**
+     * Deletes all slaves in the list from Jenkins in one change of the node list, saved once.
+     * The computers of the slaves are disconnected first, a slave that fails to disconnect is kept.
+     * Slaves that no longer are registered in Jenkins are ignored.
+     * @param failedSlavesBuffer where the names of the slaves that could not be deleted are appended,
+     * together with the cause.
+     * @return the slaves that could not be deleted.
+     */
+    protected NodeList deleteAll(StringBuffer failedSlavesBuffer) {
+        return deleteAll(failedSlavesBuffer, new ApplyReport());
+    }
+
+    /**
+     * Deletes all slaves in the list from Jenkins in one change of the node list, saved once, recording the
+     * progress in a report. The slaves are looked up by name, so a slave that has been reconfigured since it was
+     * selected is still deleted. Each slave is recorded as done or failed once the node list has been saved.
+     * @param failedSlavesBuffer where the names of the slaves that could not be deleted are appended,
+     * together with the cause.
+     * @param report where the time of each slave and of the commit is recorded.
+     * @return the slaves that could not be deleted.
+     */
+    protected NodeList deleteAll(StringBuffer failedSlavesBuffer, ApplyReport report) {
+        long start = System.nanoTime();
+        NodeList failedSlavesList = new NodeList();
+        synchronized (NODE_LIST_LOCK) {
+            Hudson hudson = Hudson.getInstance();
+            //The registered slaves to delete, and the slaves they were selected as
+            NodeList deletedNodes = new NodeList(size());
+            List<Node> selectedNodes = new ArrayList<Node>(size());
+            long[] nodeNanos = new long[size()];
+            for (Node node : this) {
+                long nodeStart = System.nanoTime();
+                Node registered = hudson.getNode(node.getNodeName());
+                if (registered == null) {
+                    //Deleted already
+                    registered = node;
+                }
+                try {
+                    Computer computer = registered.toComputer();
+                    if (computer != null) {
+                        computer.disconnect(OfflineCause.create(Messages._SlaveBeingDeleted()));
+                    }
+                    nodeNanos[deletedNodes.size()] = System.nanoTime() - nodeStart;
+                    deletedNodes.add(registered);
+                    selectedNodes.add(node);
+                } catch (Exception e) {
+                    failedSlavesList.add(node);
+                    appendFailure(failedSlavesBuffer, node, e);
+                    report.nodeFailed(node.getNodeName());
+                }
+            }
+            if (!deletedNodes.isEmpty()) {
+                long commitStart = System.nanoTime();
+                try {
+                    commitNodes(deletedNodes.getComplementaryNodes());
+                    for (int i = 0; i < deletedNodes.size(); i++) {
+                        report.nodeDone(deletedNodes.get(i).getNodeName(), nodeNanos[i]);
+                    }
+                } catch (IOException e) {
+                    for (Node node : selectedNodes) {
+                        failedSlavesList.add(node);
+                        appendFailure(failedSlavesBuffer, node, e);
+                        report.nodeFailed(node.getNodeName());
+                    }
+                }
+                report.addCommitNanos(System.nanoTime() - commitStart);
+            }
+        }
+        report.setTotalNanos(System.nanoTime() - start);
+        return failedSlavesList;
+    }
+
+    /**
+     * Appends a slave that could not be deleted to a buffer of failures.
+     * @param failedSlavesBuffer the buffer.
+     * @param node the slave.
+     * @param cause why it failed.
+     */
+    private static void appendFailure(StringBuffer failedSlavesBuffer, Node node, Exception cause) {
+        failedSlavesBuffer.append(node.getNodeName()).append(" cause: ");
+        failedSlavesBuffer.append(cause.getMessage()).append(" ");
+    }
+
+    /**
+     * Replaces the Jenkins node list, while holding {@link #NODE_LIST_LOCK}.
+     * Anything saving Jenkins meanwhile is coalesced into one save of the configuration.
+     * @param nodes the new node list.
+     * @throws IOException if the configuration could not be saved.
+     */
+    static void commitNodes(List<Node> nodes) throws IOException {
+        Hudson app = Hudson.getInstance();
+        BulkChange bulkChange = new BulkChange(app);
+        try {
+            app.setNodes(nodes);
+            bulkChange.commit();
+        } finally {
+            bulkChange.abort();
+            NodeListVersion.changed();
+        }
     }
 
     /**
@@ -279,16 +483,7 @@ public class NodeList extends ArrayList<Node> {
         if (labelsToAdd == null) {
             return oldLabels;
         }
-        String[] labelsToAddArray = labelsToAdd.split("\\s+");
-        List<String> oldLabelsList = Arrays.asList(oldLabels.split("\\s+"));
-        StringBuilder newLabelsBuilder = new StringBuilder(oldLabels).append(" ");
-
-        for (String currentToken : labelsToAddArray) {
-            if (!oldLabelsList.contains(currentToken)) {
-                newLabelsBuilder.append(currentToken).append(" ");
-            }
-        }
-        return newLabelsBuilder.toString();
+        return ChangeSet.LabelDelta.literal(labelsToAdd).addTo(null, oldLabels);
     }
 
     /**
@@ -301,16 +496,7 @@ public class NodeList extends ArrayList<Node> {
         if (labelsToRemove == null) {
             return oldLabels;
         }
-        String[] oldLabelsArray = oldLabels.split("\\s+");
-        List<String> labelsToRemoveList = Arrays.asList(labelsToRemove.split("\\s+"));
-        StringBuilder newLabelsBuilder = new StringBuilder();
-
-        for (String currentToken : oldLabelsArray) {
-            if (!labelsToRemoveList.contains(currentToken)) {
-                newLabelsBuilder.append(currentToken).append(" ");
-            }
-        }
-        return newLabelsBuilder.toString();
+        return ChangeSet.LabelDelta.literal(labelsToRemove).removeFrom(null, oldLabels);
     }
 
     /**
@@ -318,9 +504,11 @@ public class NodeList extends ArrayList<Node> {
      * @return the complementary list
      */
     protected List<Node> getComplementaryNodes() {
+        Set<Node> selectedNodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>(size()));
+        selectedNodes.addAll(this);
         List<Node> complementaryNodes = new ArrayList<Node>();
         for (Node node : Hudson.getInstance().getNodes()) {
-            if (node != null && !this.contains(node)) {
+            if (node != null && !selectedNodes.contains(node)) {
                 complementaryNodes.add(node);
             }
         }
@@ -329,6 +517,8 @@ public class NodeList extends ArrayList<Node> {
 
     /**
      * Checks all the labels in the parameter to make sure each of them exist on at least one slave in this list.
+     * For the registered slaves, each label is one intersection with the slaves carrying it in the
+     * {@link SlaveIndex}, other nodes have their labels put together in one bitset.
      * @param labels the labels to check.
      * @return true/false if they existed.
      */
@@ -336,19 +526,21 @@ public class NodeList extends ArrayList<Node> {
         if (labels == null) {
             return true;
         }
-        String[] labelsArray = labels.split("\\s+");
-
-        for (String currentToken : labelsArray) {
-            boolean tokenExists = false;
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> indexedSlaves = index.getIndexed(this);
+        LabelDictionary dictionary = LabelDictionary.current();
+        LabelSet.Union otherLabels = new LabelSet.Union(dictionary);
+        if (indexedSlaves.size() < size()) {
             for (Node node : this) {
-                String[] nodeLabelsArray = node.getLabelString().split("\\s+");
-                List<String> nodeLabelsList = Arrays.asList(nodeLabelsArray);
-                if (nodeLabelsList.contains(currentToken)) {
-                    tokenExists = true;
-                    break;
+                if (!indexedSlaves.contains(node)) {
+                    otherLabels.add(LabelSet.parse(dictionary, node.getLabelString()));
                 }
             }
-            if (!tokenExists) {
+        }
+        LabelSet otherLabelSet = otherLabels.toLabelSet();
+
+        for (String currentToken : LabelDictionary.split(labels)) {
+            if (!otherLabelSet.contains(currentToken) && !index.anyHasLabel(indexedSlaves, currentToken)) {
                 return false;
             }
         }
@@ -422,38 +614,22 @@ public class NodeList extends ArrayList<Node> {
         if (isEmpty()) {
             throw new Failure(Messages.EmptyNodeList());
         }
+        return getCommonSettings().get(type);
+    }
 
-        String environmentFirstString;
-        String comparableString;
-        String environmentComparableString;
-
-        String firstString = type.getSettingString(getFirstSlave());
-        environmentFirstString = EnvironmentVariables.toVariables(getFirstSlave(), firstString);
-
-        boolean exactSameStrings = true;
-        boolean environmentSameStrings = true;
-
-        for (Node node : this) {
-            if (node instanceof DumbSlave) {
-                DumbSlave slave = (DumbSlave)node;
-                comparableString = type.getSettingString(slave);
-                environmentComparableString = EnvironmentVariables.toVariables(slave, comparableString);
-
-                if (!comparableString.equals(firstString)) {
-                    exactSameStrings = false;
-                }
-                if (!environmentComparableString.equals(environmentFirstString)) {
-                    environmentSameStrings = false;
-                }
-                if (!exactSameStrings && !environmentSameStrings) {
-                    return null;
-                }
-            }
-        }
-        if (exactSameStrings) {
-            return firstString;
+    /**
+     * Gets the settings that all slaves in this list have in common.
+     * They are aggregated in one pass over the list the first time they are needed,
+     * and then reused until the list is modified.
+     * @return the common settings
+     */
+    CommonSettings getCommonSettings() {
+        CommonSettings snapshot = commonSettings;
+        if (snapshot == null || snapshot.getModCount() != modCount) {
+            snapshot = CommonSettings.aggregate(this, modCount);
+            commonSettings = snapshot;
         }
-        return environmentFirstString;
+        return snapshot;
     }
 
     /**
@@ -465,13 +641,7 @@ public class NodeList extends ArrayList<Node> {
             throw new Failure(Messages.EmptyNodeList());
         }
 
-        Node.Mode firstMode = getFirstSlave().getMode();
-        for (Node node : this) {
-            if (!node.getMode().equals(firstMode) && node instanceof DumbSlave) {
-                return null;
-            }
-        }
-        return firstMode;
+        return getCommonSettings().getMode();
     }
 
     /**
@@ -483,17 +653,25 @@ public class NodeList extends ArrayList<Node> {
      * @return the common ComputerLauncher
      */
     public ComputerLauncher getLauncher() {
-        ComputerLauncher firstLauncher = (getFirstSlave()).getLauncher();
-
+        CommonSettings commonSettings = getCommonSettings();
         //Returns null if one launcher type differs from the others
-        for (Node node : this) {
-            if (node instanceof DumbSlave) {
-                if (!((DumbSlave)node).getLauncher().getDescriptor().equals(firstLauncher.getDescriptor())) {
-                    return null;
-                }
-            }
+        if (!commonSettings.isSameLauncherType()) {
+            return null;
+        }
+        ComputerLauncher commonLauncher = commonSettings.getLauncher();
+        if (commonLauncher == null) {
+            commonLauncher = createCommonLauncher(commonSettings.getFirstSlave().getLauncher());
+            commonSettings.setLauncher(commonLauncher);
         }
+        return commonLauncher;
+    }
 
+    /**
+     * Creates a launcher of the same type as all slaves in this list have, with the settings they have in common.
+     * @param firstLauncher the launcher of the first slave
+     * @return the common launcher
+     */
+    private ComputerLauncher createCommonLauncher(ComputerLauncher firstLauncher) {
         //Equivalent to all launchers are ManagedWindowsServiceLaunchers
         if (firstLauncher instanceof ManagedWindowsServiceLauncher) {
             return new ManagedWindowsServiceLauncher(getCommon(USERNAME), getCommon(PASSWORD_STRING));
@@ -516,17 +694,26 @@ public class NodeList extends ArrayList<Node> {
      * @return the common RetentionStrategy
      */
     public RetentionStrategy getRetentionStrategy() {
-        RetentionStrategy firstRetentionStrategy = (getFirstSlave()).getRetentionStrategy();
-
-        for (Node node : this) {
-            if (node instanceof DumbSlave) {
-                if (!((DumbSlave)node).getRetentionStrategy().getDescriptor().
-                        equals(firstRetentionStrategy.getDescriptor())) {
-                    return null;
-                }
-            }
+        CommonSettings commonSettings = getCommonSettings();
+        if (!commonSettings.isSameRetentionStrategyType()) {
+            return null;
+        }
+        RetentionStrategy commonRetentionStrategy = commonSettings.getRetentionStrategy();
+        if (commonRetentionStrategy == null) {
+            commonRetentionStrategy = createCommonRetentionStrategy(
+                    commonSettings.getFirstSlave().getRetentionStrategy());
+            commonSettings.setRetentionStrategy(commonRetentionStrategy);
         }
+        return commonRetentionStrategy;
+    }
 
+    /**
+     * Creates an availability of the same type as all slaves in this list have, with the settings they have in
+     * common.
+     * @param firstRetentionStrategy the availability of the first slave
+     * @return the common availability
+     */
+    private RetentionStrategy createCommonRetentionStrategy(RetentionStrategy firstRetentionStrategy) {
         if (firstRetentionStrategy instanceof RetentionStrategy.Demand) {
             long commonInDemandDelay;
             long commonIdleDelay;
@@ -659,4 +846,141 @@ public class NodeList extends ArrayList<Node> {
         }
         return Messages.UnableToCompareRetentionStrategies();
     }
+
+    /**
+     * The columns of the slave table that a search result can be sorted by.
+     */
+    public enum SortColumn {
+        /**
+         * The node name.
+         */
+        NAME("name"),
+        /**
+         * The availability of the computer, as in the alternative text of its status icon.
+         */
+        STATUS("status"),
+        /**
+         * The label string.
+         */
+        LABELS("labels"),
+        /**
+         * The number of executors.
+         */
+        EXECUTORS("executors"),
+        /**
+         * The remote FS root.
+         */
+        REMOTE_FS("remoteFS"),
+        /**
+         * The node description.
+         */
+        DESCRIPTION("description");
+
+        private final String parameter;
+
+        /**
+         * Standard constructor.
+         * @param parameter the name of the column in the search parameters.
+         */
+        SortColumn(String parameter) {
+            this.parameter = parameter;
+        }
+
+        /**
+         * Gets the name of the column in the search parameters.
+         * @return the name.
+         */
+        public String getParameter() {
+            return parameter;
+        }
+
+        /**
+         * Gets the column with a name from the search parameters.
+         * @param parameter the name of the column, can be null.
+         * @return the column, or {@link #NAME} if there is no column with the name.
+         */
+        public static SortColumn fromParameter(String parameter) {
+            for (SortColumn column : values()) {
+                if (column.parameter.equals(parameter)) {
+                    return column;
+                }
+            }
+            return NAME;
+        }
+
+        /**
+         * Compares two nodes by this column, text is compared case insensitive.
+         * The name isn't compared here, since it decides the order of nodes that are equal in every column.
+         * @param n1 the first node.
+         * @param n2 the second node.
+         * @return a negative number, zero or a positive number if the first node goes before, together with or
+         * after the second node.
+         */
+        int compare(Node n1, Node n2) {
+            switch (this) {
+                case STATUS:
+                    return compareText(getStatus(n1), getStatus(n2));
+                case LABELS:
+                    return compareText(n1.getLabelString(), n2.getLabelString());
+                case EXECUTORS:
+                    int executors1 = n1.getNumExecutors();
+                    int executors2 = n2.getNumExecutors();
+                    if (executors1 == executors2) {
+                        return 0;
+                    }
+                    if (executors1 < executors2) {
+                        return -1;
+                    }
+                    return 1;
+                case REMOTE_FS:
+                    return compareText(getRemoteFS(n1), getRemoteFS(n2));
+                case DESCRIPTION:
+                    return compareText(n1.getNodeDescription(), n2.getNodeDescription());
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Gets the alternative text of the status icon of a node, the same text as the slave table shows.
+         * @param node the node.
+         * @return the text, or the empty string if the node isn't a DumbSlave.
+         */
+        private static String getStatus(Node node) {
+            if (node instanceof DumbSlave) {
+                return ComputerStatusCache.get(((DumbSlave)node).getComputer()).getIconAltText();
+            }
+            return "";
+        }
+
+        /**
+         * Gets the remote FS root of a node.
+         * @param node the node.
+         * @return the remote FS root, or the empty string if the node isn't a DumbSlave.
+         */
+        private static String getRemoteFS(Node node) {
+            if (node instanceof DumbSlave) {
+                return ((DumbSlave)node).getRemoteFS();
+            }
+            return "";
+        }
+
+        /**
+         * Compares two texts case insensitive, null is the same as the empty string.
+         * @param text1 the first text.
+         * @param text2 the second text.
+         * @return the result of the comparison.
+         */
+        private static int compareText(String text1, String text2) {
+            String first = text1;
+            if (first == null) {
+                first = "";
+            }
+            String second = text2;
+            if (second == null) {
+                second = "";
+            }
+            return String.CASE_INSENSITIVE_ORDER.compare(first, second);
+        }
+    }
 }
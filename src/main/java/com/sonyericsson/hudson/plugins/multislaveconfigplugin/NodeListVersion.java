@@ -0,0 +1,91 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.ComputerListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A version number of the Jenkins node list that grows every time a node is added, removed or saved.
+ * Anything derived from the node list, like the {@link SlaveIndex} or a validated selection, remembers the version
+ * it was derived from and only needs to compare it with the current version to know if it is still up to date.
+ */
+public final class NodeListVersion {
+
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    /**
+     * Utility class.
+     */
+    private NodeListVersion() {
+    }
+
+    /**
+     * Gets the current version.
+     * @return the version.
+     */
+    public static long get() {
+        return VERSION.get();
+    }
+
+    /**
+     * Tells that the node list has changed.
+     * @return the new version.
+     */
+    public static long changed() {
+        return VERSION.incrementAndGet();
+    }
+
+    /**
+     * Steps the version when nodes are added, removed or reconfigured.
+     */
+    @Extension
+    public static class ConfigurationChangeListener extends ComputerListener {
+        @Override
+        public void onConfigurationChange() {
+            changed();
+        }
+    }
+
+    /**
+     * Steps the version when a node, or the Jenkins configuration holding the nodes, is saved.
+     */
+    @Extension
+    public static class SaveListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Node || o instanceof Hudson) {
+                changed();
+            }
+        }
+    }
+}
@@ -51,11 +51,15 @@ import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -82,12 +86,14 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
     protected static final String ICON = "/plugin/" + URL + "/images/computers.png";
 
     /**
-     * Hashmap with user and what userMode that currently is active.
+     * How long the page of a bulk job waits for the job to finish before it shows the progress instead.
      */
-    protected HashMap<String, UserMode> userMode = new HashMap<String, UserMode>();
-    private HashMap<String, NodeList> nodeListMap = new HashMap<String, NodeList>();
-    private HashMap<String, HashMap> lastChangedSettings = new HashMap<String, HashMap>();
-    private HashMap<String, Boolean> hadLabels = new HashMap<String, Boolean>();
+    static final long JOB_WAIT_MILLIS = 3000;
+
+    /**
+     * The wizard state of each user session, by session id.
+     */
+    protected final SessionStateCache sessions = new SessionStateCache();
     private static NodeManageLink instance;
 
     /**
@@ -141,9 +147,11 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
         /**
          * Usermode when deleting slaves.
          */
-        DELETE
-
-        //TODO: Add launch slaves mode
+        DELETE,
+        /**
+         * Usermode when launching slaves.
+         */
+        LAUNCH
     }
 
     /**
@@ -201,13 +209,60 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
         return instance;
     }
 
+    /**
+     * Gets the wizard state of a specific session id, without creating it.
+     * State is only created for the session of a request, see {@link #getSessionState(StaplerRequest)}, so that
+     * made up session ids can't fill the cache.
+     * @param sessionId the session id to get the state for
+     * @return the session state, or null if the session has none
+     */
+    public SessionState getSessionState(String sessionId) {
+        return sessions.getIfPresent(sessionId);
+    }
+
+    /**
+     * Gets the wizard state of the session of a request, making sure it is dropped when the session is invalidated.
+     * @param req the request
+     * @return the session state
+     */
+    SessionState getSessionState(StaplerRequest req) {
+        HttpSession session = req.getSession();
+        sessions.bind(session);
+        return sessions.get(session.getId());
+    }
+
+    /**
+     * Gets the session state cache, used by the jelly scripts to show its memory usage.
+     * @return the session state cache
+     */
+    public SessionStateCache getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Gets the user mode of a specific session id without creating any session state.
+     * @param sessionId the session id to get the user mode for
+     * @return the user mode, or null if none is set
+     */
+    private UserMode getUserMode(String sessionId) {
+        SessionState state = sessions.getIfPresent(sessionId);
+        if (state == null) {
+            return null;
+        }
+        return state.getUserMode();
+    }
+
     /**
      * Gets the active nodelist of a specific sessionid. Mostly used within the jelly pages.
      * @param sessionId the session id to get the list from
      * @return the active nodelist
      */
     public NodeList getNodeList(String sessionId) {
-        return nodeListMap.get(sessionId);
+        SessionState state = sessions.getIfPresent(sessionId);
+        if (state == null) {
+            return null;
+        }
+        return state.getNodeList();
     }
 
     /**
@@ -215,8 +270,25 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      * @param sessionId which session id to get the settings from
      * @return the last changed settings
      */
-    public HashMap getLastChangedSettings(String sessionId) {
-        return lastChangedSettings.get(sessionId);
+    public ChangeSet getLastChangedSettings(String sessionId) {
+        SessionState state = sessions.getIfPresent(sessionId);
+        if (state == null) {
+            return null;
+        }
+        return state.getLastChangedSettings();
+    }
+
+    /**
+     * Used for letting the jelly scripts find out how long the last apply took.
+     * @param sessionId which session id to get the report from
+     * @return the report of the last apply, or null if nothing has been applied
+     */
+    public ApplyReport getLastApplyReport(String sessionId) {
+        SessionState state = sessions.getIfPresent(sessionId);
+        if (state == null) {
+            return null;
+        }
+        return state.getLastApplyReport();
     }
 
     /**
@@ -279,7 +351,7 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      */
     public boolean isConfigureMode() {
         String currentSessionId = Stapler.getCurrentRequest().getSession().getId();
-        return userMode.get(currentSessionId) == CONFIGURE;
+        return getUserMode(currentSessionId) == CONFIGURE;
     }
 
     /**
@@ -288,7 +360,7 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      */
     public boolean isDeleteMode() {
         String currentSessionId = Stapler.getCurrentRequest().getSession().getId();
-        return userMode.get(currentSessionId) == DELETE;
+        return getUserMode(currentSessionId) == DELETE;
     }
 
     /**
@@ -297,10 +369,17 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      */
     public boolean isAddMode() {
         String currentSessionId = Stapler.getCurrentRequest().getSession().getId();
-        return userMode.get(currentSessionId) == ADD;
+        return getUserMode(currentSessionId) == ADD;
     }
 
-    //TODO add isLaunchMode()
+    /**
+     * Checks if current used mode was UserMode Launch.
+     * @return true/false if last used mode was UserMode Launch.
+     */
+    public boolean isLaunchMode() {
+        String currentSessionId = Stapler.getCurrentRequest().getSession().getId();
+        return getUserMode(currentSessionId) == LAUNCH;
+    }
 
     /**
      * Gets all Jenkins registered nodes. Used for the jelly scripts
@@ -332,7 +411,7 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
     public void doConfigureRedirect(StaplerRequest req, StaplerResponse rsp) throws IOException {
         Hudson app = Hudson.getInstance();
         app.checkPermission(getRequiredPermission());
-        userMode.put(req.getSession().getId(), CONFIGURE);
+        getSessionState(req).setUserMode(CONFIGURE);
         if (app.getNodes().isEmpty()) {
             throw new Failure(Messages.EmptyNodeList());
         }
@@ -347,11 +426,25 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      */
     public void doAddRedirect(StaplerRequest req, StaplerResponse rsp) throws IOException {
         Hudson.getInstance().checkPermission(getRequiredPermission());
-        userMode.put(req.getSession().getId(), ADD);
+        getSessionState(req).setUserMode(ADD);
         rsp.sendRedirect2("createslaves");
     }
 
-    //TODO: Add doLaunchRedirect that sets the usermode for the specific session and redirects to the slavefilter page
+    /**
+     * Redirects to the launch-wizard, also setting usermode to launch.
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse to redirect with
+     * @throws IOException if redirection goes wrong
+     */
+    public void doLaunchRedirect(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Hudson app = Hudson.getInstance();
+        app.checkPermission(getRequiredPermission());
+        getSessionState(req).setUserMode(LAUNCH);
+        if (app.getNodes().isEmpty()) {
+            throw new Failure(Messages.EmptyNodeList());
+        }
+        rsp.sendRedirect2("slavefilter");
+    }
 
     /**
      * Redirects to the delete-wizard, also setting usermode to delete.
@@ -363,7 +456,7 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
             throws IOException {
         Hudson app = Hudson.getInstance();
         app.checkPermission(getRequiredPermission());
-        userMode.put(req.getSession().getId(), DELETE);
+        getSessionState(req).setUserMode(DELETE);
         if (app.getNodes().isEmpty()) {
             throw new Failure(Messages.EmptyNodeList());
         }
@@ -383,17 +476,135 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
     /**
      * Searches for slaves.
      * Also saves the results as a nodelist bound to the sessionid.
-     * @param sessionId the current session ID to to place the nodeList with.
+     * A search is abandoned as soon as a newer search has arrived in the same session, the page can tell which
+     * search is the newest by sending a growing "sequence" number among the search parameters, together with the
+     * "page" number it got from {@link #newSearchPage()} when it was opened.
+     * Only the names of the matching slaves are returned, the page fetches the rows it lists with
+     * {@link #doSearchWindow(StaplerRequest, StaplerResponse, long, int, int)}. If the "since" search parameter
+     * is the number of the previous result in the session, only the names that were added to and removed
+     * from that result are returned, see {@link #toSearchResponse(SearchSequencer.Result, long, long, NodeList)}.
+     * The whole result is sorted by the "sort" column and the "descending" flag among the search parameters, see
+     * {@link NodeList.SortColumn}, since the page only lists a window of it. The page merges the changed names into
+     * the result it is listing by name, so they are only returned for results sorted by name in ascending order.
+     * The result is kept in the session of the request, never in a session named by the page.
      * @param searchParameters JSONObject with information on what to search for.
-     * @return JSONArray with matching slave-representations from the search.
+     * @return JSONObject with the number of the stored result, the total number of matching slaves and their
+     * names or the changed names, or null if a newer search has superseded this one.
      */
     @JavaScriptMethod
-    public synchronized JSONArray doSearch(String sessionId, JSONObject searchParameters) {
+    public JSONObject doSearch(JSONObject searchParameters) {
+        Hudson.getInstance().checkPermission(getRequiredPermission());
+        SessionState state = getSessionState(Stapler.getCurrentRequest());
+        SearchSequencer searches = state.getSearches();
+        SearchSequencer.Ticket ticket = searches.begin(searchParameters.optLong("page", -1),
+                searchParameters.optLong("sequence", -1));
+        try {
+            SearchSequencer.Result previous = searches.getPublished();
+            NodeList nodeList = SearchSlaves.getNodes(SearchQuery.compile(searchParameters), ticket);
+            ticket.checkSuperseded();
+            NodeList.SortColumn sortColumn = NodeList.SortColumn.fromParameter(searchParameters.optString("sort"));
+            boolean descending = searchParameters.optBoolean("descending");
+            nodeList.sortBy(sortColumn, descending);
+            SearchSequencer.Result result = searches.publish(ticket, state, nodeList);
+            if (result == null) {
+                return null;
+            }
+            long since = -1;
+            if (sortColumn == NodeList.SortColumn.NAME && !descending) {
+                since = searchParameters.optLong("since", -1);
+            }
+            return toSearchResponse(previous, since, result.getSequence(), nodeList);
+        } catch (CancellationException e) {
+            logger.log(Level.FINEST, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Opens the search page in the session of the current request, the searches of the page are numbered from the
+     * beginning again however many searches earlier pages in the session have sent.
+     * @return the page number, for the page to send with its searches.
+     */
+    public long newSearchPage() {
+        return getSessionState(Stapler.getCurrentRequest()).getSearches().newPage();
+    }
+
+    /**
+     * Represents a search result as the names of the matching slaves, or as the difference to the result the page is
+     * listing when that is the previous result in the session.
+     * Nodes are compared by identity, so a slave that has been reconfigured in between is both removed and added,
+     * and the page lists its new configuration.
+     * @param previous the previous result in the session, or null if there was none.
+     * @param since the number of the result the page is listing.
+     * @param sequence the number of the new result.
+     * @param nodeList the result, sorted by name.
+     * @return JSONObject with "sequence", "total" and either "names" or "since", "added" and "removed",
+     * all names sorted the same way as the result.
+     */
+    static JSONObject toSearchResponse(SearchSequencer.Result previous, long since, long sequence,
+                                       NodeList nodeList) {
+        JSONObject response = new JSONObject();
+        response.put("sequence", sequence);
+        response.put("total", nodeList.size());
+        if (previous == null || previous.getSequence() != since) {
+            JSONArray names = new JSONArray();
+            for (Node node : nodeList) {
+                names.add(node.getNodeName());
+            }
+            response.put("names", names);
+            return response;
+        }
+        response.put("since", since);
+        response.put("added", getNamesNotIn(nodeList, previous.getNodeList()));
+        response.put("removed", getNamesNotIn(previous.getNodeList(), nodeList));
+        return response;
+    }
+
+    /**
+     * Gets the names of the nodes in a list that aren't in another list, compared by identity.
+     * @param nodes the nodes to get names of.
+     * @param others the nodes to leave out.
+     * @return the names, in the same order as the nodes.
+     */
+    private static JSONArray getNamesNotIn(List<Node> nodes, List<Node> others) {
+        Set<Node> excluded = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>(others.size()));
+        excluded.addAll(others);
+        JSONArray names = new JSONArray();
+        for (Node node : nodes) {
+            if (!excluded.contains(node)) {
+                names.add(node.getNodeName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Fetches a window of the result of the latest search, when the user scrolls the list of slaves.
+     * The window is written in the compact columnar format of {@link SearchResultWriter}, straight to the response.
+     * The response is null if the page is listing the result of another search.
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @param sequence the number of the result the page is listing.
+     * @param offset the index of the first slave in the window.
+     * @param limit the maximum number of slaves in the window.
+     * @throws IOException if the response couldn't be written.
+     */
+    public void doSearchWindow(StaplerRequest req, StaplerResponse rsp, @QueryParameter long sequence,
+                               @QueryParameter int offset, @QueryParameter int limit) throws IOException {
         Hudson.getInstance().checkPermission(getRequiredPermission());
-        NodeList nodeList = SearchSlaves.getNodes(searchParameters);
-        nodeList.sortByName();
-        nodeListMap.put(sessionId, nodeList);
-        return nodeList.toJSONArray();
+        rsp.setContentType("application/json;charset=UTF-8");
+        Writer out = rsp.getWriter();
+        SessionState state = sessions.getIfPresent(req.getSession().getId());
+        SearchSequencer.Result result = null;
+        if (state != null) {
+            result = state.getSearches().getPublished();
+        }
+        if (result == null || result.getSequence() != sequence) {
+            out.write("null");
+            out.flush();
+            return;
+        }
+        SearchResultWriter.write(out, sequence, result.getNodeList(), offset, limit);
     }
 
     /**
@@ -403,10 +614,10 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      * @throws IOException if redirection goes wrong
      * @throws Failure
      */
-    public synchronized void doSelectSlaves(StaplerRequest req, StaplerResponse rsp) throws IOException {
+    public void doSelectSlaves(StaplerRequest req, StaplerResponse rsp) throws IOException {
         Hudson app = Hudson.getInstance();
         app.checkPermission(getRequiredPermission());
-        NodeList newList = new NodeList();
+        NodeList newList;
         JSONObject json;
         try {
             json = req.getSubmittedForm();
@@ -414,6 +625,64 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
             throw new Failure(Messages.InvalidSubmittedForm());
         }
 
+        SessionState state = getSessionState(req);
+        SearchSequencer.Result result = state.getSearches().getPublished();
+        if (json.has("selectionSequence") && result != null
+                && String.valueOf(result.getSequence()).equals(json.getString("selectionSequence"))) {
+            //The page only lists a window of the result, the selection is the result except the toggled slaves
+            newList = selectFromResult(result.getNodeList(), Boolean.parseBoolean(json.getString("selectionAll")),
+                    json.getString("selectionExceptions"));
+            if (newList.isEmpty()) {
+                throw new Failure(Messages.NoSelectedSlaves());
+            }
+        } else {
+            newList = selectCheckedSlaves(app, json);
+        }
+        state.setNodeList(newList);
+        if (state.getUserMode() == CONFIGURE) {
+            rsp.sendRedirect2("settingsselector");
+        } else if (state.getUserMode() == DELETE) {
+            rsp.sendRedirect2("deleteconfirmation");
+        } else if (state.getUserMode() == LAUNCH) {
+            rsp.sendRedirect2("launchsettings");
+        } else {
+            //Redirect to home, so that a user mode can be set
+            rsp.sendRedirect2("");
+        }
+    }
+
+    /**
+     * Selects the slaves from a search result that the user has checked.
+     * @param result the search result.
+     * @param selectAll true if the user has checked all slaves except the exceptions,
+     * false if the user has checked only the exceptions.
+     * @param exceptions JSON array with the names of the slaves that are toggled from selectAll.
+     * @return the selected slaves, in the same order as in the result.
+     */
+    static NodeList selectFromResult(NodeList result, boolean selectAll, String exceptions) {
+        Set<String> exceptionNames = new HashSet<String>();
+        if (Util.fixEmpty(exceptions) != null) {
+            for (Object name : JSONArray.fromObject(exceptions)) {
+                exceptionNames.add(name.toString());
+            }
+        }
+        NodeList selected = new NodeList(selectAll ? result.size() : exceptionNames.size());
+        for (Node node : result) {
+            if (selectAll != exceptionNames.contains(node.getNodeName())) {
+                selected.add(node);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Selects the slaves that are checked in the submitted form.
+     * @param app the Jenkins instance.
+     * @param json the submitted form.
+     * @return the selected slaves.
+     */
+    private static NodeList selectCheckedSlaves(Hudson app, JSONObject json) {
+        NodeList newList = new NodeList();
         if (json.get("selectedSlaves") == null) {
             throw new Failure(Messages.NoSelectedSlaves());
         }
@@ -434,110 +703,336 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
                 newList.add(slave);
             }
         }
-        String currentSessionId = req.getSession().getId();
-        nodeListMap.put(currentSessionId, newList);
-        if (userMode.get(currentSessionId) == CONFIGURE) {
-            rsp.sendRedirect2("settingsselector");
-        } else if (userMode.get(currentSessionId) == DELETE) {
-            rsp.sendRedirect2("deleteconfirmation");
-        } else {
-            //Redirect to home, so that a user mode can be set
-            rsp.sendRedirect2("");
-        }
+        return newList;
     }
 
     /**
-     * Applies the settings on the current slaves.
+     * Applies the settings on the current slaves, in a {@link BulkJob} running in the background.
+     * A change of launch method or availability is rolled out in waves if the user asked for it, see
+     * {@link RollingApply}.
+     * Redirects to the page of the job, see {@link #doJob(StaplerRequest, StaplerResponse, long)}.
      * @param rsp StaplerRequest.
      * @param req StaplerRequest.
      * @throws IOException if redirection goes wrong.
      * @throws ServletException if something is wrong with the submitted form.
      */
-    public synchronized void doApply(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+    public void doApply(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
         Hudson.getInstance().checkPermission(getRequiredPermission());
-        String currentSessionId = req.getSession().getId();
-        NodeList nodeList = getNodeList(currentSessionId);
+        final SessionState state = getSessionState(req);
+        final NodeList nodeList = state.getNodeList();
 
-        HashMap settings;
+        final ChangeSet changes;
+        final String submittedForm;
+        final RollingApply requestedRollout;
         try {
-            settings = NodeList.interpretJSON(req.getSubmittedForm());
+            JSONObject form = req.getSubmittedForm();
+            submittedForm = form.toString();
+            changes = ChangeSet.compile(NodeList.interpretJSON(form));
+            requestedRollout = toRollout(form.optJSONObject("rolling"));
         } catch (ServletException e) {
             logger.log(Level.WARNING, "Invalid submitted form after editing settings on slaves");
             throw new Failure(Messages.InvalidSubmittedForm());
         }
-        UserMode currentUsermode = userMode.get(currentSessionId);
+        final UserMode currentUsermode = state.getUserMode();
 
-        if (currentUsermode == null) {
+        if (currentUsermode == null || nodeList == null) {
             //Redirect to home, so that a user mode can be set
             rsp.sendRedirect2("");
+            return;
         }
 
-        if (settings.isEmpty() && currentUsermode == CONFIGURE) {
+        if (changes.isEmpty() && currentUsermode == CONFIGURE) {
             throw new Failure(Messages.NoSelectedSettings());
         }
-        if ((nodeList.slavesStillExist() && currentUsermode == CONFIGURE)
-                || currentUsermode == ADD) {
-            //Checks if the labels to remove existed before applying the change,
-            //so that the confirmation page can show if the remove was successful:
-            hadLabels.put(req.getSession().getId(), nodeList.hasLabels((String)settings.get("removeLabelString")));
-            nodeList = nodeList.changeSettings(settings);
-            nodeListMap.put(currentSessionId, nodeList);
-            lastChangedSettings.put(currentSessionId, settings);
-            if (currentUsermode == CONFIGURE) {
-                //TODO: Structure up these logging messages
-                logger.log(Level.INFO, "User configured the following slaves: " + nodeList.toString() + "\n"
-                        + "with the following submitted form containing new settings: " + req.getSubmittedForm());
-                rsp.sendRedirect2("applied");
-            } else if (currentUsermode == ADD) {
-                logger.log(Level.INFO, "User added the following slaves: " + nodeList.toString() + "\n"
-                        + "with the following submitted form containing new settings: " + req.getSubmittedForm());
-                rsp.sendRedirect2("added");
-            }
+        final RollingApply rollout;
+        BulkJob.Kind kind;
+        if (requestedRollout != null && currentUsermode == CONFIGURE && RollingApply.isRollable(changes)) {
+            //A rollout waits for the slaves to come back online, so it mustn't hold up the other changes
+            rollout = requestedRollout;
+            kind = BulkJob.Kind.CONNECT;
         } else {
-            throw new Failure(Messages.SlaveDeleted());
+            rollout = null;
+            kind = BulkJob.Kind.CHANGE;
         }
+        BulkJob job = BulkJob.submit(kind, currentUsermode, nodeList.size(), new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                return applySettings(state, nodeList, currentUsermode, changes, rollout, submittedForm, report);
+            }
+        });
+        rsp.sendRedirect2("job?id=" + job.getId());
+    }
+
+    /**
+     * Reads how a change should be rolled out in waves from the submitted form.
+     * @param rolling the "rolling" part of the form, or null if the user didn't ask for waves.
+     * @return the rollout, or null if the change should be applied to all slaves at once.
+     * @throws Failure if any of the numbers isn't a number.
+     */
+    static RollingApply toRollout(JSONObject rolling) {
+        if (rolling == null || rolling.isNullObject()) {
+            return null;
+        }
+        int waveSize = parseNumber(rolling.optString("waveSize"), 0);
+        if (waveSize <= 0) {
+            return null;
+        }
+        return new RollingApply(waveSize, parseNumber(rolling.optString("maxFailures"), 0),
+                parseNumber(rolling.optString("timeoutSeconds"), RollingApply.DEFAULT_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Applies settings on slaves and stores the outcome in the session state, the work of an apply job.
+     * @param state the session state to store the outcome in.
+     * @param nodeList the slaves to apply the settings on.
+     * @param currentUsermode the wizard the user is running.
+     * @param changes the settings to apply.
+     * @param rollout how to roll the change out in waves, or null to apply it to all slaves at once.
+     * @param submittedForm the submitted form, for logging.
+     * @param report where the progress of the apply is recorded.
+     * @return the name of the page showing the result.
+     * @throws Failure if any of the slaves to configure have been deleted, the rollout was halted or the apply
+     * failed.
+     */
+    private static String applySettings(SessionState state, NodeList nodeList, UserMode currentUsermode,
+                                        ChangeSet changes, RollingApply rollout, String submittedForm,
+                                        ApplyReport report) {
+        NodeList changedList = null;
+        boolean rolling = rollout != null;
+        //Only the changes of the Jenkins node list are serialized, searches in other sessions can go on meanwhile
+        synchronized (NodeList.NODE_LIST_LOCK) {
+            if ((nodeList.slavesStillExist() && currentUsermode == CONFIGURE)
+                    || currentUsermode == ADD) {
+                //Checks if the labels to remove existed before applying the change,
+                //so that the confirmation page can show if the remove was successful:
+                state.setHadLabels(nodeList.hasLabels(changes.getRemoveLabelString()));
+                if (!rolling) {
+                    changedList = nodeList.changeSettings(changes, report);
+                }
+            } else {
+                throw new Failure(Messages.SlaveDeleted());
+            }
+        }
+        if (rolling) {
+            //The lock is only taken while each wave is changed, not while waiting for the slaves to come back
+            changedList = rollout.apply(nodeList, changes, report, state);
+        }
+        state.setNodeList(changedList);
+        state.setLastChangedSettings(changes);
+        state.setLastApplyReport(report);
+        logger.log(Level.INFO, "Applied settings, " + report);
+        if (currentUsermode == ADD) {
+            logger.log(Level.INFO, "User added the following slaves: " + changedList.toString() + "\n"
+                    + "with the following submitted form containing new settings: " + submittedForm);
+            return "added";
+        }
+        //TODO: Structure up these logging messages
+        logger.log(Level.INFO, "User configured the following slaves: " + changedList.toString() + "\n"
+                + "with the following submitted form containing new settings: " + submittedForm);
+        return "applied";
     }
 
     /**
      * Checks if the used nodelist (by searching for session id) contained the labels to remove before removing them.
      * Used for the confirmation page
      * @param sessionId the session id to get the state from
-     * @return true/false
+     * @return true/false, true if it isn't known
      */
     public boolean hadLabels(String sessionId) {
-        return hadLabels.get(sessionId);
+        SessionState state = getSessionState(sessionId);
+        if (state == null || state.getHadLabels() == null) {
+            return true;
+        }
+        return state.getHadLabels();
     }
 
     /**
-     * Deletes the slaves in this list.
+     * Deletes the slaves in this list, in a {@link BulkJob} running in the background.
+     * Redirects to the page of the job, see {@link #doJob(StaplerRequest, StaplerResponse, long)}.
      * @param req StaplerRequest
      * @param rsp StaplerResponse
      * @throws IOException if redirection goes wrong
      */
-    public synchronized void doDeleteSlaves(StaplerRequest req, StaplerResponse rsp) throws IOException {
+    public void doDeleteSlaves(StaplerRequest req, StaplerResponse rsp) throws IOException {
         Hudson app = Hudson.getInstance();
         app.checkPermission(getRequiredPermission());
         String currentSessionId = req.getSession().getId();
-        NodeList nodeList = getNodeList(currentSessionId);
+        final NodeList nodeList = getNodeList(currentSessionId);
+        if (nodeList == null) {
+            //Redirect to home, so that a user mode can be set
+            rsp.sendRedirect2("");
+            return;
+        }
 
-        StringBuffer failedSlavesBuffer = new StringBuffer();
-        NodeList failedSlavesList = new NodeList();
-        for (Node node : nodeList) {
-            try {
-                app.removeNode(node);
-            } catch (IOException e) {
-                failedSlavesList.add(node);
-                failedSlavesBuffer.append(node.getNodeName()).append(" cause: ");
-                failedSlavesBuffer.append(e.getMessage()).append(" ");
+        BulkJob job = BulkJob.submit(DELETE, nodeList.size(), new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                StringBuffer failedSlavesBuffer = new StringBuffer();
+                NodeList failedSlavesList = nodeList.deleteAll(failedSlavesBuffer, report);
+                String failedSlaves = failedSlavesBuffer.toString();
+                if (!failedSlavesList.isEmpty()) {
+                    logger.log(Level.WARNING, Messages.CouldNotDelete(failedSlaves));
+                    throw new Failure(Messages.CouldNotDelete(failedSlavesList.toString()));
+                }
+                logger.log(Level.CONFIG, "User deleted the following slaves: " + nodeList.toString());
+                return "deleted";
             }
+        });
+        rsp.sendRedirect2("job?id=" + job.getId());
+    }
+
+    /**
+     * Launches the slaves in this list in parallel, in a {@link BulkJob} running in the background.
+     * Redirects to the page of the job, see {@link #doJob(StaplerRequest, StaplerResponse, long)}.
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @param concurrency the largest number of slaves connecting at the same time, empty for the default.
+     * @param staggerMillis the shortest time between the start of two connections in milliseconds, empty for the
+     * default.
+     * @param timeoutSeconds the time each slave has to come online in seconds, empty for the default.
+     * @throws IOException if redirection goes wrong
+     * @throws Failure if any of the numbers isn't a number.
+     */
+    public void doLaunchSlaves(StaplerRequest req, StaplerResponse rsp, @QueryParameter String concurrency,
+                               @QueryParameter String staggerMillis, @QueryParameter String timeoutSeconds)
+            throws IOException {
+        Hudson.getInstance().checkPermission(getRequiredPermission());
+        SessionState state = getSessionState(req);
+        NodeList nodeList = state.getNodeList();
+        if (nodeList == null || state.getUserMode() != LAUNCH) {
+            //Redirect to home, so that a user mode can be set
+            rsp.sendRedirect2("");
+            return;
         }
-        String failedSlaves = failedSlavesBuffer.toString();
-        if (!failedSlavesList.isEmpty()) {
-            logger.log(Level.WARNING, Messages.CouldNotDelete(failedSlaves));
-            throw new Failure(Messages.CouldNotDelete(failedSlavesList.toString()));
+        BulkLauncher launcher = new BulkLauncher(nodeList,
+                parseNumber(concurrency, BulkLauncher.DEFAULT_CONCURRENCY),
+                parseNumber(staggerMillis, (int)BulkLauncher.DEFAULT_STAGGER_MILLIS),
+                parseNumber(timeoutSeconds, BulkLauncher.DEFAULT_TIMEOUT_SECONDS));
+        state.setLastLaunch(launcher);
+        BulkJob job = BulkJob.submit(BulkJob.Kind.CONNECT, LAUNCH, nodeList.size(), launcher);
+        logger.log(Level.INFO, "User launched the following slaves: " + nodeList.toString());
+        rsp.sendRedirect2("job?id=" + job.getId());
+    }
+
+    /**
+     * Parses a number from a form.
+     * @param value the submitted value.
+     * @param defaultValue the number to use if nothing was submitted.
+     * @return the number.
+     * @throws Failure if the value isn't a number.
+     */
+    static int parseNumber(String value, int defaultValue) {
+        if (Util.fixEmptyAndTrim(value) == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new Failure(Messages.NotANumber());
+        }
+    }
+
+    /**
+     * Used for letting the jelly scripts show the result of the last launch.
+     * @param sessionId which session id to get the launch from
+     * @return the last launch, or null if no slaves have been launched
+     */
+    public BulkLauncher getLastLaunch(String sessionId) {
+        SessionState state = sessions.getIfPresent(sessionId);
+        if (state == null) {
+            return null;
+        }
+        return state.getLastLaunch();
+    }
+
+    /**
+     * Shows the result of a bulk job, the page that the configure, add, delete and launch wizards end on.
+     * Waits a moment for the job to finish, so that small jobs go straight to their result page. A job that takes
+     * longer redirects to a page that follows its progress and comes back here when it has finished.
+     * @param req StaplerRequest
+     * @param rsp StaplerResponse
+     * @param id the id of the job.
+     * @throws IOException if redirection goes wrong
+     * @throws Failure if the job failed, with the message of the failure.
+     */
+    public void doJob(StaplerRequest req, StaplerResponse rsp, @QueryParameter long id) throws IOException {
+        Hudson.getInstance().checkPermission(getRequiredPermission());
+        BulkJob job = getOwnBulkJob(id);
+        if (job == null) {
+            throw new Failure(Messages.UnknownBulkJob(id));
+        }
+        try {
+            job.awaitFinished(JOB_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (job.getState() == BulkJob.State.DONE) {
+            rsp.sendRedirect2(job.getResultPage());
+        } else if (job.getState() == BulkJob.State.FAILED) {
+            throw new Failure(job.getFailure());
+        } else {
+            rsp.sendRedirect2("jobprogress?id=" + id);
+        }
+    }
+
+    /**
+     * Gets the progress of a bulk job, polled by the progress page of the job.
+     * @param id the id of the job.
+     * @return JSONObject with the progress, see {@link #toProgress(BulkJob)}, or null if the job isn't known.
+     */
+    @JavaScriptMethod
+    public JSONObject doJobProgress(long id) {
+        Hudson.getInstance().checkPermission(getRequiredPermission());
+        BulkJob job = getOwnBulkJob(id);
+        if (job == null) {
+            return null;
+        }
+        return toProgress(job);
+    }
+
+    /**
+     * Gets a bulk job submitted by the current user. Jobs of other users are treated as unknown.
+     * @param id the id of the job.
+     * @return the job, or null if it isn't known or belongs to another user.
+     */
+    private static BulkJob getOwnBulkJob(long id) {
+        BulkJob job = BulkJob.get(id);
+        if (job == null || !job.isOwnedBy(Hudson.getAuthentication())) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Represents the progress of a bulk job.
+     * @param job the job.
+     * @return JSONObject with "state", "finished", "total", "done", "failed", "etaMillis" and "elapsedMillis",
+     * and for launches the "slaves" being launched, see {@link BulkLauncher#toJSON()}.
+     */
+    static JSONObject toProgress(BulkJob job) {
+        JSONObject progress = new JSONObject();
+        progress.put("state", job.getState().name());
+        progress.put("finished", job.isFinished());
+        progress.put("total", job.getTotal());
+        progress.put("done", job.getDone());
+        progress.put("failed", job.getFailed());
+        progress.put("etaMillis", job.getEtaMillis());
+        progress.put("elapsedMillis", job.getElapsedMillis());
+        if (job.getWork() instanceof BulkLauncher) {
+            progress.put("slaves", ((BulkLauncher)job.getWork()).toJSON());
+        }
+        return progress;
+    }
+
+    /**
+     * Gets a bulk job for the progress page.
+     * @param id the id of the job, as in the request.
+     * @return the job, or null if it isn't known or belongs to another user.
+     */
+    public BulkJob getBulkJob(String id) {
+        try {
+            return getOwnBulkJob(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            return null;
         }
-        logger.log(Level.CONFIG, "User deleted the following slaves: " + nodeList.toString());
-        rsp.sendRedirect2("deleted");
     }
 
     /**
@@ -555,16 +1050,14 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
      * @throws Descriptor.FormException if slave creation goes wrong.
      * @throws Failure
      */
-    public synchronized void doCreateSlaves(StaplerRequest req, StaplerResponse rsp,
-                                            @QueryParameter String slaveNames, @QueryParameter String slaveName,
-                                            @QueryParameter String mode, @QueryParameter String first,
-                                            @QueryParameter String last, @QueryParameter String copyFrom,
-                                            @QueryParameter boolean extendedEnvInterpretation)
+    public void doCreateSlaves(StaplerRequest req, StaplerResponse rsp,
+                               @QueryParameter String slaveNames, @QueryParameter String slaveName,
+                               @QueryParameter String mode, @QueryParameter String first,
+                               @QueryParameter String last, @QueryParameter String copyFrom,
+                               @QueryParameter boolean extendedEnvInterpretation)
             throws IOException, Descriptor.FormException {
         Hudson app = Hudson.getInstance();
         app.checkPermission(getRequiredPermission());
-        NodeList nodeList = new NodeList();
-        String currentSessionId = req.getSession().getId();
 
         HashSet<String> names = getSlaveNames(slaveNames, slaveName, first, last);
 
@@ -572,13 +1065,9 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
             throw new Failure(Messages.EmptyNameList());
         }
 
+        SlaveTemplate template;
         if (mode != null && mode.equals("newSlave")) {
-            for (String currentName : names) {
-                DumbSlave slave = new DumbSlave(currentName, "", "", "", Node.Mode.NORMAL, "",
-                        new ManagedWindowsServiceLauncher("", ""), new RetentionStrategy.Always(),
-                        Collections.EMPTY_LIST);
-                nodeList.add(slave);
-            }
+            template = SlaveTemplate.newSlave();
         } else if (mode != null && mode.equals("copySlave")) {
             Node src = app.getNode(copyFrom);
             if (src == null) {
@@ -591,19 +1080,13 @@ public class NodeManageLink extends ManagementLink implements Describable<NodeMa
             if (extendedEnvInterpretation) {
                 src = EnvironmentVariables.toVariables((DumbSlave)src);
             }
-            for (String currentName : names) {
-                DumbSlave copiedSlave = new DumbSlave(currentName, src.getNodeDescription(),
-                        ((DumbSlave)src).getRemoteFS(), String.valueOf(src.getNumExecutors()), src.getMode(),
-                        src.getLabelString(), ((DumbSlave)src).getLauncher(), ((DumbSlave)src).getRetentionStrategy(),
-                        src.getNodeProperties().toList());
-                copiedSlave = EnvironmentVariables.fromVariables(copiedSlave);
-                nodeList.add(copiedSlave);
-            }
+            template = SlaveTemplate.compile((DumbSlave)src);
         } else {
             rsp.sendError(SC_BAD_REQUEST);
             return;
         }
-        nodeListMap.put(currentSessionId, nodeList);
+        NodeList nodeList = template.createAll(names);
+        getSessionState(req).setNodeList(nodeList);
         rsp.sendRedirect2("settingsselector");
     }
 
@@ -0,0 +1,202 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Computer;
+import hudson.model.Failure;
+import hudson.model.Node;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies a change of launch method or availability in waves of slaves, instead of to all slaves at once.
+ * The slaves of a wave that were online before the change have to be online again before the next wave is
+ * changed, slaves changing launch method are reconnected to use it. When more slaves than the failure threshold
+ * have not come back online, the rollout is halted and the remaining slaves are left unchanged.
+ */
+public final class RollingApply {
+
+    /**
+     * The default time the slaves of a wave have to come back online, in seconds.
+     */
+    static final int DEFAULT_TIMEOUT_SECONDS = 300;
+
+    private final int waveSize;
+    private final int maxFailures;
+    private final int timeoutSeconds;
+
+    /**
+     * Standard constructor.
+     * @param waveSize the number of slaves changed in each wave.
+     * @param maxFailures the number of slaves that may fail to come back online before the rollout is halted.
+     * @param timeoutSeconds the time the slaves of a wave have to come back online, in seconds.
+     */
+    public RollingApply(int waveSize, int maxFailures, int timeoutSeconds) {
+        this.waveSize = Math.max(1, waveSize);
+        this.maxFailures = Math.max(0, maxFailures);
+        this.timeoutSeconds = Math.max(1, timeoutSeconds);
+    }
+
+    /**
+     * Checks if settings change anything that makes slaves reconnect or go offline, which is what a rollout
+     * in waves is for.
+     * @param changes the settings to apply.
+     * @return true if they change the launch method or the availability.
+     */
+    static boolean isRollable(ChangeSet changes) {
+        return changes.getLauncher() != null || changes.getRetentionStrategy() != null;
+    }
+
+    /**
+     * Applies settings on the slaves, one wave at a time.
+     * @param nodeList the slaves to change, in the order they should be changed.
+     * @param changes the settings to apply.
+     * @param report where the changed slaves, and the ones that didn't come back online, are recorded.
+     * @return the changed slaves.
+     * @throws Failure if slaves have been deleted, or if the rollout was halted since too many slaves did not
+     * come back online.
+     */
+    public NodeList apply(NodeList nodeList, ChangeSet changes, ApplyReport report) {
+        return apply(nodeList, changes, report, null);
+    }
+
+    /**
+     * Applies settings on the slaves, one wave at a time, keeping a session up to date if the rollout stops early.
+     * The waves changed before a halt stay changed, so the session is given the slaves that are registered then,
+     * and the report of what was done, before the failure is thrown.
+     * @param nodeList the slaves to change, in the order they should be changed.
+     * @param changes the settings to apply.
+     * @param report where the changed slaves, and the ones that didn't come back online, are recorded.
+     * @param state the session to keep up to date, or null if there is none.
+     * @return the changed slaves.
+     * @throws Failure if slaves have been deleted, or if the rollout was halted since too many slaves did not
+     * come back online.
+     */
+    public NodeList apply(NodeList nodeList, ChangeSet changes, ApplyReport report, SessionState state) {
+        long start = System.nanoTime();
+        boolean reconnect = changes.getLauncher() != null;
+        NodeList changedList = new NodeList(nodeList.size());
+        List<String> failedNames = new ArrayList<String>();
+        for (int from = 0; from < nodeList.size(); from += waveSize) {
+            NodeList wave = new NodeList(nodeList.subList(from, Math.min(nodeList.size(), from + waveSize)));
+            Set<String> wasOnline = getOnlineNames(wave);
+            NodeList changedWave;
+            synchronized (NodeList.NODE_LIST_LOCK) {
+                if (!wave.slavesStillExist()) {
+                    stopped(state, nodeList, changedList, report, start);
+                    throw new Failure(Messages.SlaveDeleted());
+                }
+                changedWave = wave.changeSettings(changes, report);
+            }
+            changedList.addAll(changedWave);
+
+            //Slaves that the change left as they are weren't replaced, and need no reconnect
+            List<Node> comingBack = new ArrayList<Node>(wasOnline.size());
+            for (int i = 0; i < changedWave.size(); i++) {
+                Node node = changedWave.get(i);
+                if (node != wave.get(i) && wasOnline.contains(node.getNodeName())) {
+                    comingBack.add(node);
+                }
+            }
+            BulkLauncher launcher = new BulkLauncher(comingBack, waveSize, 0, timeoutSeconds, reconnect);
+            launcher.run(new ApplyReport());
+            for (BulkLauncher.Launch launch : launcher.getLaunches()) {
+                if (!launch.isOnline()) {
+                    report.nodeFailed(launch.getName());
+                    failedNames.add(launch.getName());
+                }
+            }
+            if (failedNames.size() > maxFailures) {
+                stopped(state, nodeList, changedList, report, start);
+                throw new Failure(Messages.RolloutHalted(changedList.size(), nodeList.size(), failedNames));
+            }
+        }
+        report.setTotalNanos(System.nanoTime() - start);
+        return changedList;
+    }
+
+    /**
+     * Records a rollout that stops before the last wave, in its report and in the session.
+     * @param state the session to keep up to date, or null if there is none.
+     * @param nodeList the slaves to change.
+     * @param changedList the slaves of the waves changed so far.
+     * @param report the report of the rollout.
+     * @param start when the rollout started, from {@link System#nanoTime()}.
+     */
+    private static void stopped(SessionState state, NodeList nodeList, NodeList changedList, ApplyReport report,
+                                long start) {
+        report.setTotalNanos(System.nanoTime() - start);
+        if (state != null) {
+            NodeList current = new NodeList(nodeList.size());
+            current.addAll(changedList);
+            current.addAll(nodeList.subList(changedList.size(), nodeList.size()));
+            state.setNodeList(current);
+            state.setLastApplyReport(report);
+        }
+    }
+
+    /**
+     * Gets the names of the slaves that are online.
+     * @param nodes the slaves.
+     * @return the names of the online slaves.
+     */
+    private static Set<String> getOnlineNames(List<Node> nodes) {
+        Set<String> names = new HashSet<String>();
+        for (Node node : nodes) {
+            Computer computer = node.toComputer();
+            if (computer != null && computer.isOnline()) {
+                names.add(node.getNodeName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Gets the number of slaves changed in each wave.
+     * @return the wave size.
+     */
+    public int getWaveSize() {
+        return waveSize;
+    }
+
+    /**
+     * Gets the number of slaves that may fail to come back online before the rollout is halted.
+     * @return the failure threshold.
+     */
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * Gets the time the slaves of a wave have to come back online.
+     * @return the timeout in seconds.
+     */
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+}
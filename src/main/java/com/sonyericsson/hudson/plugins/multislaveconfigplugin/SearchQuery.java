@@ -0,0 +1,237 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import net.sf.json.JSONObject;
+
+/**
+ * A search on the slave filter page, compiled once per search request.
+ * The search strings are lower cased and split into tokens up front, and it is decided per token if environment
+ * variables like $NAME need to be interpreted at all, so that matching a slave allocates nothing.
+ */
+public final class SearchQuery {
+
+    private final boolean hasExecutors;
+    private final int executors;
+    private final FieldSearch[] fieldSearches = new FieldSearch[SlaveIndex.Field.values().length];
+
+    /**
+     * Use {@link #compile(net.sf.json.JSONObject)}.
+     * @param executors the number of executors to search for, or null if any.
+     */
+    private SearchQuery(Integer executors) {
+        this.hasExecutors = executors != null;
+        if (executors != null) {
+            this.executors = executors;
+        } else {
+            this.executors = 0;
+        }
+    }
+
+    /**
+     * Compiles a submitted search form.
+     * @param searchParameters submitted form containing what to search for.
+     * @return the compiled query.
+     */
+    public static SearchQuery compile(JSONObject searchParameters) {
+        Integer executors = null;
+        try {
+            executors = Integer.parseInt((String)searchParameters.get("executors"));
+        //CS IGNORE EmptyBlock FOR NEXT 1 LINES. REASON: Don't need to catch anything.
+        } catch (NumberFormatException ignored) { }
+        SearchQuery query = new SearchQuery(executors);
+        query.setSearch(SlaveIndex.Field.NAME, (String)searchParameters.get("name"));
+        query.setSearch(SlaveIndex.Field.LABELS, (String)searchParameters.get("labels"));
+        query.setSearch(SlaveIndex.Field.REMOTE_FS, (String)searchParameters.get("remoteFS"));
+        query.setSearch(SlaveIndex.Field.DESCRIPTION, (String)searchParameters.get("description"));
+        return query;
+    }
+
+    /**
+     * Sets what to search for in a field.
+     * @param field the field.
+     * @param searchString the search string.
+     */
+    private void setSearch(SlaveIndex.Field field, String searchString) {
+        fieldSearches[field.ordinal()] = FieldSearch.compile(searchString);
+    }
+
+    /**
+     * Checks if the number of executors is searched for.
+     * @return true if it is.
+     */
+    public boolean hasExecutors() {
+        return hasExecutors;
+    }
+
+    /**
+     * Gets the number of executors to search for, only valid if {@link #hasExecutors()}.
+     * @return the number of executors.
+     */
+    public int getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Gets the compiled search for a field.
+     * @param field the field.
+     * @return the compiled search, empty if the field isn't searched.
+     */
+    public FieldSearch getSearch(SlaveIndex.Field field) {
+        return fieldSearches[field.ordinal()];
+    }
+
+    /**
+     * Checks if any field search contains environment variables.
+     * @return true if environment variables need to be interpreted on the slaves.
+     */
+    public boolean hasVariables() {
+        for (FieldSearch search : fieldSearches) {
+            if (search.hasVariables()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The compiled search string for one field.
+     */
+    public static final class FieldSearch {
+
+        private static final FieldSearch EMPTY = new FieldSearch(new String[0]);
+
+        private final String[] tokens;
+        private final boolean[] variableTokens;
+        private final boolean variables;
+
+        /**
+         * Standard constructor.
+         * @param tokens the lower case search tokens.
+         */
+        private FieldSearch(String[] tokens) {
+            this.tokens = tokens;
+            this.variableTokens = new boolean[tokens.length];
+            boolean anyVariables = false;
+            for (int i = 0; i < tokens.length; i++) {
+                variableTokens[i] = tokens[i].contains("$");
+                anyVariables |= variableTokens[i];
+            }
+            this.variables = anyVariables;
+        }
+
+        /**
+         * Compiles a search string. An empty or null search string matches everything.
+         * @param searchString the string to compile.
+         * @return the compiled search.
+         */
+        public static FieldSearch compile(String searchString) {
+            if (searchString == null || searchString.isEmpty()) {
+                return EMPTY;
+            }
+            return new FieldSearch(SearchSlaves.makeSearchable(searchString).split("\\s+"));
+        }
+
+        /**
+         * Checks if this search matches everything.
+         * @return true if there is nothing to search for.
+         */
+        public boolean isEmpty() {
+            return tokens.length == 0;
+        }
+
+        /**
+         * Gets the number of search tokens.
+         * @return the number of tokens.
+         */
+        public int size() {
+            return tokens.length;
+        }
+
+        /**
+         * Gets a search token.
+         * @param i the index of the token.
+         * @return the lower case token.
+         */
+        public String getToken(int i) {
+            return tokens[i];
+        }
+
+        /**
+         * Checks if a search token contains environment variables.
+         * @param i the index of the token.
+         * @return true if it does.
+         */
+        public boolean isVariable(int i) {
+            return variableTokens[i];
+        }
+
+        /**
+         * Checks if any search token contains environment variables.
+         * @return true if any does.
+         */
+        public boolean hasVariables() {
+            return variables;
+        }
+
+        /**
+         * Checks if a field on a slave matches this search,
+         * see {@link SearchSlaves#hasSearchHit(hudson.slaves.DumbSlave, String, String)}.
+         * Nothing is allocated and environment variables are never interpreted unless a search token contains
+         * them, and then the interpreted form cached in the value is used.
+         * @param value the field value on the slave.
+         * @return true if all search tokens were found.
+         */
+        boolean matches(SlaveIndex.FieldValue value) {
+            if (tokens.length == 0) {
+                return true;
+            }
+            String[] slaveTokens = value.getTokens();
+            if (slaveTokens.length == 0) {
+                return false;
+            }
+            for (int t = 0; t < tokens.length; t++) {
+                String token = tokens[t];
+                boolean anySlaveTokenContained = false;
+                for (int i = 0; i < slaveTokens.length; i++) {
+                    if (slaveTokens[i].contains(token)) {
+                        anySlaveTokenContained = true;
+                        break;
+                    } else if (variableTokens[t]) {
+                        String[] environmentTokens = value.getEnvironmentTokens();
+                        if (i < environmentTokens.length && environmentTokens[i].contains(token)) {
+                            anySlaveTokenContained = true;
+                            break;
+                        }
+                    }
+                }
+                if (!anySlaveTokenContained) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a window of a search result as compact, columnar JSON, straight to the response.
+ * Instead of one object per slave repeating every key, each column is one array with a value per slave.
+ * Icons, availability texts, labels, descriptions and the parent directories of the remote FS roots are
+ * repeated on many slaves, so those columns hold indexes into a dictionary of strings that is written last.
+ * <pre>
+ * {"sequence":7,"total":1200,"offset":0,"count":2,
+ *  "name":["build01","build02"],"icon":[0,0],"iconAltText":[1,1],"labels":[[2,3],[2]],
+ *  "executors":[2,2],"remoteFS":[[4,"build01"],[4,"build02"]],"description":[5,5],
+ *  "strings":["computer.png","[online]","linux","x64","/jenkins/",""]}
+ * </pre>
+ */
+public final class SearchResultWriter {
+
+    /**
+     * Line terminator in JavaScript, but not in JSON.
+     */
+    private static final char LINE_SEPARATOR = 0x2028;
+    /**
+     * Paragraph terminator in JavaScript, but not in JSON.
+     */
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    private final Writer out;
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    /**
+     * Standard constructor.
+     * @param out where to write.
+     */
+    private SearchResultWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a window of a search result.
+     * @param out where to write.
+     * @param sequence the sequence number of the search.
+     * @param nodeList the search result.
+     * @param offset the index of the first slave in the window.
+     * @param limit the maximum number of slaves in the window.
+     * @throws IOException if writing fails.
+     */
+    public static void write(Writer out, long sequence, NodeList nodeList, int offset, int limit)
+            throws IOException {
+        new SearchResultWriter(out).writeWindow(sequence, nodeList, offset, limit);
+    }
+
+    /**
+     * Writes a window of a search result.
+     * @param sequence the sequence number of the search.
+     * @param nodeList the search result.
+     * @param offset the index of the first slave in the window.
+     * @param limit the maximum number of slaves in the window.
+     * @throws IOException if writing fails.
+     */
+    private void writeWindow(long sequence, NodeList nodeList, int offset, int limit) throws IOException {
+        int start = Math.max(offset, 0);
+        int end = (int)Math.min((long)start + Math.max(limit, 0), nodeList.size());
+        List<DumbSlave> slaves = new ArrayList<DumbSlave>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            Node node = nodeList.get(i);
+            if (node instanceof DumbSlave) {
+                slaves.add((DumbSlave)node);
+            }
+        }
+        int count = slaves.size();
+        String[] names = new String[count];
+        int[] icons = new int[count];
+        int[] iconAltTexts = new int[count];
+        int[][] labels = new int[count][];
+        int[] executors = new int[count];
+        int[] remoteFSParents = new int[count];
+        String[] remoteFSNames = new String[count];
+        int[] descriptions = new int[count];
+        for (int i = 0; i < count; i++) {
+            DumbSlave slave = slaves.get(i);
+            ComputerStatusCache.Status status = ComputerStatusCache.get(slave.getComputer());
+            names[i] = slave.getNodeName();
+            icons[i] = intern(status.getIcon());
+            iconAltTexts[i] = intern(status.getIconAltText());
+            labels[i] = internLabels(slave.getLabelString());
+            executors[i] = slave.getNumExecutors();
+            String remoteFS = nullToEmpty(slave.getRemoteFS());
+            int split = Math.max(remoteFS.lastIndexOf('/'), remoteFS.lastIndexOf('\\')) + 1;
+            remoteFSParents[i] = intern(remoteFS.substring(0, split));
+            remoteFSNames[i] = remoteFS.substring(split);
+            descriptions[i] = intern(slave.getNodeDescription());
+        }
+
+        out.write("{\"sequence\":");
+        out.write(String.valueOf(sequence));
+        out.write(",\"total\":");
+        out.write(String.valueOf(nodeList.size()));
+        out.write(",\"offset\":");
+        out.write(String.valueOf(start));
+        out.write(",\"count\":");
+        out.write(String.valueOf(count));
+
+        out.write(",\"name\":[");
+        for (int i = 0; i < count; i++) {
+            separate(i);
+            writeString(names[i]);
+        }
+        writeColumn("icon", icons);
+        writeColumn("iconAltText", iconAltTexts);
+        out.write("],\"labels\":[");
+        for (int i = 0; i < count; i++) {
+            separate(i);
+            out.write('[');
+            for (int j = 0; j < labels[i].length; j++) {
+                separate(j);
+                out.write(String.valueOf(labels[i][j]));
+            }
+            out.write(']');
+        }
+        writeColumn("executors", executors);
+        out.write("],\"remoteFS\":[");
+        for (int i = 0; i < count; i++) {
+            separate(i);
+            out.write('[');
+            out.write(String.valueOf(remoteFSParents[i]));
+            out.write(',');
+            writeString(remoteFSNames[i]);
+            out.write(']');
+        }
+        writeColumn("description", descriptions);
+        out.write("],\"strings\":[");
+        for (int i = 0; i < strings.size(); i++) {
+            separate(i);
+            writeString(strings.get(i));
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * Ends the previous column and writes a column of numbers, except the closing bracket.
+     * @param name the name of the column.
+     * @param values the values.
+     * @throws IOException if writing fails.
+     */
+    private void writeColumn(String name, int[] values) throws IOException {
+        out.write("],\"");
+        out.write(name);
+        out.write("\":[");
+        for (int i = 0; i < values.length; i++) {
+            separate(i);
+            out.write(String.valueOf(values[i]));
+        }
+    }
+
+    /**
+     * Writes a comma before every value but the first.
+     * @param index the index of the value.
+     * @throws IOException if writing fails.
+     */
+    private void separate(int index) throws IOException {
+        if (index > 0) {
+            out.write(',');
+        }
+    }
+
+    /**
+     * Gets the index of a string in the dictionary, adding it if it's new.
+     * @param value the string, null is the same as the empty string.
+     * @return the index.
+     */
+    private int intern(String value) {
+        String key = nullToEmpty(value);
+        Integer index = dictionary.get(key);
+        if (index == null) {
+            index = strings.size();
+            dictionary.put(key, index);
+            strings.add(key);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the dictionary indexes of the labels in a label string.
+     * @param labelString the labels separated by whitespace.
+     * @return the indexes.
+     */
+    private int[] internLabels(String labelString) {
+        String trimmed = nullToEmpty(labelString).trim();
+        if (trimmed.isEmpty()) {
+            return new int[0];
+        }
+        String[] labels = trimmed.split("\\s+");
+        int[] indexes = new int[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            indexes[i] = intern(labels[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Writes a string as a JSON string literal.
+     * Angle brackets are escaped as well, so that the response can never be taken for markup.
+     * @param value the string, null is written as the empty string.
+     * @throws IOException if writing fails.
+     */
+    private void writeString(String value) throws IOException {
+        String string = nullToEmpty(value);
+        out.write('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < ' ' || c == '<' || c == '>' || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                        out.write(String.format("\\u%04x", (int)c));
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Null safe string.
+     * @param value the string.
+     * @return the string, or the empty string if it was null.
+     */
+    private static String nullToEmpty(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value;
+    }
+}
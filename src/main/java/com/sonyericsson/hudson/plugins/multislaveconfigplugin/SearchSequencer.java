@@ -0,0 +1,239 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps track of the latest search in a session.
+ * The search page sends a new search for every key stroke. Each search gets a sequence number, and as soon as
+ * a newer search has arrived the older ones are superseded: they are cancelled at their next check point and
+ * their results are thrown away instead of replacing the result of the newer search.
+ * Every time the search page is opened it gets a new page number from {@link #newPage()} and numbers its searches
+ * from the beginning again. Searches from pages that were opened before are superseded.
+ * Stored results are numbered separately, in the order they were stored, so that a page can never mistake the
+ * result of a search from another page for its own.
+ */
+public class SearchSequencer {
+
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicReference<Position> latest = new AtomicReference<Position>(new Position(0, 0));
+    private final AtomicLong results = new AtomicLong();
+    private volatile Result published;
+
+    /**
+     * Opens a new search page, its searches are numbered from the beginning.
+     * @return the page number, to send with the searches of the page.
+     */
+    public long newPage() {
+        long page = pages.incrementAndGet();
+        Position current = latest.get();
+        while (current.page < page && !latest.compareAndSet(current, new Position(page, 0))) {
+            current = latest.get();
+        }
+        return page;
+    }
+
+    /**
+     * Starts a search from the page that was opened last.
+     * @param sequence the sequence number the page gave the search, or a negative number if it gave none,
+     * in which case the search is numbered in the order it arrived.
+     * @return the ticket of the search.
+     */
+    public Ticket begin(long sequence) {
+        return begin(-1, sequence);
+    }
+
+    /**
+     * Starts a search.
+     * @param page the number of the page the search is from, or a negative number for the page that was opened last.
+     * @param sequence the sequence number the page gave the search, or a negative number if it gave none,
+     * in which case the search is numbered in the order it arrived.
+     * @return the ticket of the search.
+     */
+    public Ticket begin(long page, long sequence) {
+        Position current = latest.get();
+        if (sequence < 0) {
+            Position next = new Position(current.page, current.sequence + 1);
+            while (!latest.compareAndSet(current, next)) {
+                current = latest.get();
+                next = new Position(current.page, current.sequence + 1);
+            }
+            return new Ticket(next);
+        }
+        Position position = new Position(current.page, sequence);
+        if (page >= 0) {
+            position = new Position(page, sequence);
+        }
+        while (position.page == current.page && sequence > current.sequence
+                && !latest.compareAndSet(current, position)) {
+            current = latest.get();
+        }
+        return new Ticket(position);
+    }
+
+    /**
+     * Gets the sequence number of the latest search on the page that was opened last.
+     * @return the sequence number.
+     */
+    public long getLatest() {
+        return latest.get().sequence;
+    }
+
+    /**
+     * Stores the result of a search in the session state, unless a newer search has arrived.
+     * @param ticket the ticket of the search.
+     * @param state the session state to store the result in.
+     * @param nodeList the result.
+     * @return the stored result, or null if the search was superseded.
+     */
+    public synchronized Result publish(Ticket ticket, SessionState state, NodeList nodeList) {
+        if (ticket.isSuperseded()) {
+            return null;
+        }
+        Result result = new Result(results.incrementAndGet(), nodeList);
+        published = result;
+        state.setNodeList(nodeList);
+        return result;
+    }
+
+    /**
+     * Gets the result of the latest search that was stored.
+     * Unlike the node list of the session state, it isn't replaced when slaves are selected from it.
+     * @return the result, or null if no search has been stored yet.
+     */
+    public Result getPublished() {
+        return published;
+    }
+
+    /**
+     * The stored result of a search, together with its number.
+     */
+    public static final class Result {
+
+        private final long sequence;
+        private final NodeList nodeList;
+
+        /**
+         * Standard constructor.
+         * @param sequence the number of the result, unique within the session.
+         * @param nodeList the matching slaves.
+         */
+        Result(long sequence, NodeList nodeList) {
+            this.sequence = sequence;
+            this.nodeList = nodeList;
+        }
+
+        /**
+         * Gets the number of the result, results are numbered in the order they were stored in the session.
+         * @return the number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the matching slaves.
+         * @return the slaves.
+         */
+        public NodeList getNodeList() {
+            return nodeList;
+        }
+    }
+
+    /**
+     * The page and sequence number of a search.
+     */
+    private static final class Position {
+
+        private final long page;
+        private final long sequence;
+
+        /**
+         * Standard constructor.
+         * @param page the page number.
+         * @param sequence the sequence number on the page.
+         */
+        private Position(long page, long sequence) {
+            this.page = page;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Checks if this is the same position as another.
+         * @param other the other position.
+         * @return true if both the page and the sequence number are the same.
+         */
+        private boolean isAt(Position other) {
+            return page == other.page && sequence == other.sequence;
+        }
+    }
+
+    /**
+     * The ticket of one search.
+     */
+    public final class Ticket {
+
+        private final Position position;
+
+        /**
+         * Standard constructor.
+         * @param position the page and sequence number of the search.
+         */
+        private Ticket(Position position) {
+            this.position = position;
+        }
+
+        /**
+         * Gets the sequence number of the search.
+         * @return the sequence number.
+         */
+        public long getSequence() {
+            return position.sequence;
+        }
+
+        /**
+         * Checks if a newer search has arrived, or a newer page has been opened.
+         * @return true if it has.
+         */
+        public boolean isSuperseded() {
+            return !position.isAt(latest.get());
+        }
+
+        /**
+         * Cancels the search if a newer search has arrived.
+         * @throws CancellationException if it has.
+         */
+        public void checkSuperseded() {
+            Position current = latest.get();
+            if (!position.isAt(current)) {
+                throw new CancellationException("Search " + position.page + ":" + position.sequence
+                        + " superseded by " + current.page + ":" + current.sequence);
+            }
+        }
+    }
+}
@@ -24,13 +24,10 @@
 
 package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
 
-import hudson.model.Hudson;
-import hudson.model.Node;
 import hudson.slaves.DumbSlave;
 import net.sf.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Set;
 
 /**
  * Class for searching and adding dumb slaves to a list.
@@ -52,89 +49,90 @@ public class SearchSlaves {
      * @return list of matching slaves
      */
     public static NodeList getNodes(JSONObject searchParameters) {
-        NodeList returnList = new NodeList(Hudson.getInstance().getNodes());
-        NodeList masterList = new NodeList(Hudson.getInstance().getNodes());
+        return getNodes(SearchQuery.compile(searchParameters));
+    }
 
-        for (Node node : masterList) {
-            if ((node instanceof DumbSlave)) {
+    /**
+     * Gets a list of DumbSlaves that matches a compiled search query.
+     * The candidates are looked up in the {@link SlaveIndex}, only search tokens containing environment
+     * variables need to be checked on the slaves themselves.
+     * @param query what to search for.
+     * @return list of matching slaves
+     */
+    public static NodeList getNodes(SearchQuery query) {
+        return getNodes(query, null);
+    }
 
-                DumbSlave slave = (DumbSlave)node;
+    /**
+     * Gets a list of DumbSlaves that matches a compiled search query, giving up as soon as a newer search has
+     * arrived in the same session.
+     * @param query what to search for.
+     * @param ticket the ticket of the search, or null if it can't be superseded.
+     * @return list of matching slaves
+     * @throws java.util.concurrent.CancellationException if the search was superseded.
+     */
+    public static NodeList getNodes(SearchQuery query, SearchSequencer.Ticket ticket) {
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> candidates = null;
+        if (query.hasExecutors()) {
+            candidates = index.getByExecutors(query.getExecutors());
+        }
 
-                String searchString = (String)searchParameters.get("description");
-                if (!hasSearchHit(slave, searchString, slave.getNodeDescription())) {
-                    returnList.remove(node);
-                }
-                try {
-                    int searchInt = Integer.parseInt((String)searchParameters.get("executors"));
-                    if (node.getNumExecutors() != searchInt) {
-                        returnList.remove(node);
-                    }
-                //CS IGNORE EmptyBlock FOR NEXT 1 LINES. REASON: Don't need to catch anything.
-                } catch (NumberFormatException ignored) { }
+        SlaveFilter variableSearches = new SlaveFilter();
+        for (SlaveIndex.Field field : SlaveIndex.Field.values()) {
+            candidates = searchIndex(index, candidates, field, query.getSearch(field), variableSearches);
+        }
+        if (candidates == null) {
+            candidates = index.getAll();
+        }
+        return variableSearches.filter(candidates, ticket);
+    }
 
-                searchString = (String)searchParameters.get("remoteFS");
-                if (!hasSearchHit(slave, searchString, slave.getRemoteFS())) {
-                    returnList.remove(node);
-                }
-                searchString = (String)searchParameters.get("labels");
-                if (!hasSearchHit(slave, searchString, slave.getLabelString())) {
-                    returnList.remove(node);
-                }
-                searchString = (String)searchParameters.get("name");
-                if (!hasSearchHit(slave, searchString, slave.getNodeName())) {
-                    returnList.remove(node);
-                }
-            } else { returnList.remove(node); }
+    /**
+     * Narrows down the candidates to the slaves that have all the search tokens in the given field.
+     * If any token contains an environment variable, the index can't answer it and the whole search
+     * is added to a filter that checks it on each remaining candidate.
+     * @param index the index to search in.
+     * @param candidates the candidates so far, or null if all slaves are candidates.
+     * @param field the field to search in.
+     * @param search what to search for.
+     * @param variableSearches the filter to add searches with environment variables to.
+     * @return the remaining candidates, or null if all slaves still are candidates.
+     */
+    private static Set<DumbSlave> searchIndex(SlaveIndex index, Set<DumbSlave> candidates, SlaveIndex.Field field,
+                                              SearchQuery.FieldSearch search, SlaveFilter variableSearches) {
+        for (int i = 0; i < search.size(); i++) {
+            if (search.isVariable(i)) {
+                continue;
+            }
+            if (candidates != null && candidates.isEmpty()) {
+                return candidates;
+            }
+            Set<DumbSlave> hits = index.getByToken(field, search.getToken(i));
+            if (candidates == null) {
+                candidates = hits;
+            } else {
+                candidates.retainAll(hits);
+            }
+        }
+        if (search.hasVariables()) {
+            variableSearches.addSearch(field, search);
         }
-        return returnList;
+        return candidates;
     }
 
     /**
      * Method that searches for a specific parameter on a slave and returns true/false if it's found.
+     * When searching many slaves, compile the search parameter once with
+     * {@link SearchQuery.FieldSearch#compile(String)} instead.
      * @param slave the slave to search for environment variables on.
      * @param searchParameter the parameter to search for on the slave.
      * @param slaveParameter  the current slaves parameter to compare with.
      * @return true if the search parameters is found.
      */
     public static boolean hasSearchHit(DumbSlave slave, String searchParameter, String slaveParameter) {
-        if (searchParameter == null || searchParameter.isEmpty()) {
-            return true;
-        }
-        if (slaveParameter.isEmpty()) {
-            return false;
-        }
-
-        searchParameter = makeSearchable(searchParameter);
-        String environmentSlaveParameter = makeSearchable(EnvironmentVariables.toVariables(slave, slaveParameter));
-        slaveParameter = makeSearchable(slaveParameter);
-
-        ArrayList<String> searchParameters = new ArrayList<String>();
-        Collections.addAll(searchParameters, searchParameter.split("\\s+"));
-
-        ArrayList<String> environmentSlaveParameters = new ArrayList<String>();
-        Collections.addAll(environmentSlaveParameters, environmentSlaveParameter.split("\\s+"));
-
-        ArrayList<String> slaveParameters = new ArrayList<String>();
-        Collections.addAll(slaveParameters, slaveParameter.split("\\s+"));
-
-        for (String currentSearchParameter : searchParameters) {
-            boolean anySlaveParameterContained = false;
-            for (int i = 0; i < slaveParameters.size(); i++) {
-                if (slaveParameters.get(i).contains(currentSearchParameter)) {
-                    anySlaveParameterContained = true;
-                    break;
-                } else if (currentSearchParameter.contains("$")) {
-                    if (environmentSlaveParameters.get(i).contains(currentSearchParameter)) {
-                        anySlaveParameterContained = true;
-                        break;
-                    }
-                }
-            }
-            if (!anySlaveParameterContained) {
-                return false;
-            }
-        }
-        return true;
+        return SearchQuery.FieldSearch.compile(searchParameter).matches(
+                new SlaveIndex.FieldValue(slave, slaveParameter));
     }
 
     /**
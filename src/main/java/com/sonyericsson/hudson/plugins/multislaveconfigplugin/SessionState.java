@@ -0,0 +1,163 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+
+/**
+ * The wizard state of one user session, what mode the user is in and what slaves are being worked on.
+ * Each field is replaced as a whole and never modified in place, so the state can be read and written by
+ * concurrent requests in the same session without locking.
+ */
+public class SessionState {
+
+    private volatile NodeManageLink.UserMode userMode;
+    private volatile NodeList nodeList;
+    private volatile ChangeSet lastChangedSettings;
+    private volatile Boolean hadLabels;
+    private volatile ApplyReport lastApplyReport;
+    private volatile BulkLauncher lastLaunch;
+    private volatile long lastAccessed;
+    private final SearchSequencer searches = new SearchSequencer();
+
+    /**
+     * Marks the state as used.
+     * @param now the current time in milliseconds.
+     */
+    void touch(long now) {
+        lastAccessed = now;
+    }
+
+    /**
+     * Gets the time the state was last used.
+     * @return the time in milliseconds.
+     */
+    long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    /**
+     * Gets the sequence of searches in this session.
+     * @return the search sequencer.
+     */
+    public SearchSequencer getSearches() {
+        return searches;
+    }
+
+    /**
+     * Gets the mode of the wizard the user is running.
+     * @return the user mode, or null if none has been chosen yet.
+     */
+    public NodeManageLink.UserMode getUserMode() {
+        return userMode;
+    }
+
+    /**
+     * Sets the mode of the wizard the user is running.
+     * @param userMode the user mode.
+     */
+    public void setUserMode(NodeManageLink.UserMode userMode) {
+        this.userMode = userMode;
+    }
+
+    /**
+     * Gets the slaves that currently are worked on.
+     * @return the node list.
+     */
+    public NodeList getNodeList() {
+        return nodeList;
+    }
+
+    /**
+     * Sets the slaves that currently are worked on.
+     * @param nodeList the node list.
+     */
+    public void setNodeList(NodeList nodeList) {
+        this.nodeList = nodeList;
+    }
+
+    /**
+     * Gets the settings that were applied last.
+     * @return the settings.
+     */
+    public ChangeSet getLastChangedSettings() {
+        return lastChangedSettings;
+    }
+
+    /**
+     * Sets the settings that were applied last.
+     * @param lastChangedSettings the settings.
+     */
+    public void setLastChangedSettings(ChangeSet lastChangedSettings) {
+        this.lastChangedSettings = lastChangedSettings;
+    }
+
+    /**
+     * Checks if the slaves had the labels to remove before they were removed.
+     * @return true/false, or null if no labels have been removed.
+     */
+    public Boolean getHadLabels() {
+        return hadLabels;
+    }
+
+    /**
+     * Sets if the slaves had the labels to remove before they were removed.
+     * @param hadLabels true/false.
+     */
+    public void setHadLabels(Boolean hadLabels) {
+        this.hadLabels = hadLabels;
+    }
+
+    /**
+     * Gets the report of the last apply.
+     * @return the report, or null if nothing has been applied.
+     */
+    public ApplyReport getLastApplyReport() {
+        return lastApplyReport;
+    }
+
+    /**
+     * Sets the report of the last apply.
+     * @param lastApplyReport the report.
+     */
+    public void setLastApplyReport(ApplyReport lastApplyReport) {
+        this.lastApplyReport = lastApplyReport;
+    }
+
+    /**
+     * Gets the last launch of slaves.
+     * @return the launcher, or null if no slaves have been launched.
+     */
+    public BulkLauncher getLastLaunch() {
+        return lastLaunch;
+    }
+
+    /**
+     * Sets the last launch of slaves.
+     * @param lastLaunch the launcher.
+     */
+    public void setLastLaunch(BulkLauncher lastLaunch) {
+        this.lastLaunch = lastLaunch;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link SessionState} of each user session, by session id.
+ * The number of sessions is bounded and sessions that have been idle too long are evicted, since every state can
+ * hold on to thousands of nodes. A state is also dropped as soon as its servlet session is invalidated.
+ */
+public class SessionStateCache {
+
+    /**
+     * Default maximum number of session states to keep,
+     * can be changed with the system property {@code <this class name>.maxSessions}.
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 50;
+
+    /**
+     * Default number of minutes a session state can be idle before it is evicted,
+     * can be changed with the system property {@code <this class name>.maxIdleMinutes}.
+     */
+    public static final int DEFAULT_MAX_IDLE_MINUTES = 120;
+
+    private static final Logger logger = Logger.getLogger(SessionStateCache.class.getName());
+
+    /**
+     * Session attribute that removes the state when the session is invalidated.
+     */
+    private static final String BINDING_ATTRIBUTE = SessionStateCache.class.getName() + ".binding";
+
+    private final ConcurrentMap<String, SessionState> states = new ConcurrentHashMap<String, SessionState>();
+    private final AtomicLong evictions = new AtomicLong();
+    private final int maxSessions;
+    private final long maxIdleMillis;
+
+    /**
+     * Creates a cache with the limits from the system properties.
+     */
+    public SessionStateCache() {
+        this(Integer.getInteger(SessionStateCache.class.getName() + ".maxSessions", DEFAULT_MAX_SESSIONS),
+                TimeUnit.MINUTES.toMillis(Integer.getInteger(SessionStateCache.class.getName() + ".maxIdleMinutes",
+                        DEFAULT_MAX_IDLE_MINUTES)));
+    }
+
+    /**
+     * Creates a cache with specific limits.
+     * @param maxSessions the maximum number of session states to keep.
+     * @param maxIdleMillis the time a session state can be idle before it is evicted.
+     */
+    public SessionStateCache(int maxSessions, long maxIdleMillis) {
+        this.maxSessions = Math.max(1, maxSessions);
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Gets the state of a session, creating it if the session has none yet.
+     * If the cache then holds too many sessions, the least recently used other session is evicted.
+     * @param sessionId the session id.
+     * @return the state.
+     */
+    public SessionState get(String sessionId) {
+        long now = System.currentTimeMillis();
+        SessionState state = states.get(sessionId);
+        if (state == null) {
+            state = new SessionState();
+            SessionState existing = states.putIfAbsent(sessionId, state);
+            if (existing != null) {
+                state = existing;
+            } else {
+                state.touch(now);
+                evictOverflow(sessionId);
+            }
+        }
+        state.touch(now);
+        return state;
+    }
+
+    /**
+     * Gets the state of a session without creating it.
+     * @param sessionId the session id.
+     * @return the state, or null if the session has none.
+     */
+    public SessionState getIfPresent(String sessionId) {
+        SessionState state = states.get(sessionId);
+        if (state != null) {
+            state.touch(System.currentTimeMillis());
+        }
+        return state;
+    }
+
+    /**
+     * Makes sure the state of a session is removed when the session is invalidated.
+     * @param session the servlet session.
+     */
+    public void bind(HttpSession session) {
+        if (session.getAttribute(BINDING_ATTRIBUTE) == null) {
+            session.setAttribute(BINDING_ATTRIBUTE, new Binding(this, session.getId()));
+        }
+    }
+
+    /**
+     * Removes the state of a session.
+     * @param sessionId the session id.
+     */
+    public void remove(String sessionId) {
+        states.remove(sessionId);
+    }
+
+    /**
+     * Evicts the least recently used sessions, except the given one, until the cache is within its bounds.
+     * @param keep the session id that must not be evicted.
+     */
+    private void evictOverflow(String keep) {
+        while (states.size() > maxSessions) {
+            String oldestId = null;
+            long oldestAccess = Long.MAX_VALUE;
+            for (Map.Entry<String, SessionState> entry : states.entrySet()) {
+                if (!entry.getKey().equals(keep) && entry.getValue().getLastAccessed() < oldestAccess) {
+                    oldestId = entry.getKey();
+                    oldestAccess = entry.getValue().getLastAccessed();
+                }
+            }
+            if (oldestId == null) {
+                return;
+            }
+            if (states.remove(oldestId) != null) {
+                evictions.incrementAndGet();
+                logger.log(Level.FINE, "Evicted the state of session {0}, too many sessions", oldestId);
+            }
+        }
+    }
+
+    /**
+     * Evicts all sessions that have been idle too long.
+     * @return the number of evicted sessions.
+     */
+    public int evictIdle() {
+        return evictIdle(System.currentTimeMillis());
+    }
+
+    /**
+     * Evicts all sessions that have been idle too long.
+     * @param now the current time in milliseconds.
+     * @return the number of evicted sessions.
+     */
+    int evictIdle(long now) {
+        int evicted = 0;
+        for (Map.Entry<String, SessionState> entry : states.entrySet()) {
+            if (now - entry.getValue().getLastAccessed() > maxIdleMillis
+                    && states.remove(entry.getKey(), entry.getValue())) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+            logger.log(Level.FINE, "Evicted the state of {0} idle sessions", evicted);
+        }
+        return evicted;
+    }
+
+    /**
+     * Gets the ids of the sessions that have state.
+     * @return the session ids.
+     */
+    public Set<String> getSessionIds() {
+        return Collections.unmodifiableSet(states.keySet());
+    }
+
+    /**
+     * Gets the number of sessions that have state.
+     * @return the number of sessions.
+     */
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * Gets the total number of evicted sessions, for being too many or idle too long.
+     * @return the number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Estimates how many nodes are kept in memory by the session states.
+     * The same node can be counted once per session that refers to it.
+     * @return the number of retained nodes.
+     */
+    public int getRetainedNodes() {
+        int retained = 0;
+        for (SessionState state : states.values()) {
+            NodeList nodeList = state.getNodeList();
+            if (nodeList != null) {
+                retained += nodeList.size();
+            }
+        }
+        return retained;
+    }
+
+    /**
+     * Session attribute that removes the session state when the session is invalidated.
+     */
+    private static final class Binding implements HttpSessionBindingListener, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient SessionStateCache cache;
+        private final String sessionId;
+
+        /**
+         * Standard constructor.
+         * @param cache the cache to remove the state from.
+         * @param sessionId the session id.
+         */
+        private Binding(SessionStateCache cache, String sessionId) {
+            this.cache = cache;
+            this.sessionId = sessionId;
+        }
+
+        /**
+         * Not used.
+         * @param event the binding event.
+         */
+        public void valueBound(HttpSessionBindingEvent event) {
+            //Nothing to do, the state is created when it is first used.
+        }
+
+        /**
+         * Removes the session state.
+         * @param event the binding event.
+         */
+        public void valueUnbound(HttpSessionBindingEvent event) {
+            if (cache != null) {
+                cache.remove(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Evicts idle session states once every minute.
+     */
+    @Extension
+    public static class IdleEviction extends PeriodicWork {
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void doRun() {
+            NodeManageLink link = NodeManageLink.getInstance();
+            if (link != null) {
+                link.sessions.evictIdle();
+            }
+        }
+    }
+}
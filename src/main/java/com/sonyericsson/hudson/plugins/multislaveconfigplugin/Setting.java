@@ -101,6 +101,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return ((CommandLauncher)slave.getLauncher()).getCommand();
         }
+
+        /**
+         * Checks if the slave uses a CommandLauncher.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getLauncher() instanceof CommandLauncher;
+        }
     },
     /**
      * Password string, used within ManagedWindowsServiceLauncher.
@@ -114,6 +123,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return ((ManagedWindowsServiceLauncher)slave.getLauncher()).password.getPlainText();
         }
+
+        /**
+         * Checks if the slave uses a ManagedWindowsServiceLauncher.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getLauncher() instanceof ManagedWindowsServiceLauncher;
+        }
     },
     /**
      * Username, used within ManagedWindowsServiceLauncher.
@@ -127,6 +145,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return ((ManagedWindowsServiceLauncher)slave.getLauncher()).userName;
         }
+
+        /**
+         * Checks if the slave uses a ManagedWindowsServiceLauncher.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getLauncher() instanceof ManagedWindowsServiceLauncher;
+        }
     },
     /**
      * Tunnel, used within JNLPLauncher.
@@ -140,6 +167,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return Util.fixNull(((JNLPLauncher)slave.getLauncher()).tunnel);
         }
+
+        /**
+         * Checks if the slave uses a JNLPLauncher.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getLauncher() instanceof JNLPLauncher;
+        }
     },
     /**
      * Vm args, used within JNLPLauncher.
@@ -153,6 +189,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return Util.fixNull(((JNLPLauncher)slave.getLauncher()).vmargs);
         }
+
+        /**
+         * Checks if the slave uses a JNLPLauncher.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getLauncher() instanceof JNLPLauncher;
+        }
     },
     /**
      * Idle delay, used withing RetentionStrategy.Demand.
@@ -166,6 +211,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return String.valueOf(((RetentionStrategy.Demand)slave.getRetentionStrategy()).getIdleDelay());
         }
+
+        /**
+         * Checks if the slave uses RetentionStrategy.Demand.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getRetentionStrategy() instanceof RetentionStrategy.Demand;
+        }
     },
     /**
      * In demand delay setting, used within RetentionStrategy.Demand.
@@ -179,6 +233,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return String.valueOf(((RetentionStrategy.Demand)slave.getRetentionStrategy()).getInDemandDelay());
         }
+
+        /**
+         * Checks if the slave uses RetentionStrategy.Demand.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getRetentionStrategy() instanceof RetentionStrategy.Demand;
+        }
     },
     /**
      * Keep up when active setting, used within SimpleScheduledRetentionStrategy.
@@ -193,6 +256,15 @@ public enum Setting {
             return String.valueOf(((SimpleScheduledRetentionStrategy)slave.getRetentionStrategy()).
                     isKeepUpWhenActive());
         }
+
+        /**
+         * Checks if the slave uses SimpleScheduledRetentionStrategy.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getRetentionStrategy() instanceof SimpleScheduledRetentionStrategy;
+        }
     },
     /**
      * Start time specification, used within SimpleScheduledRetentionStrategy.
@@ -207,6 +279,15 @@ public enum Setting {
             return ((SimpleScheduledRetentionStrategy)slave.getRetentionStrategy()).getStartTimeSpec();
         }
 
+        /**
+         * Checks if the slave uses SimpleScheduledRetentionStrategy.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getRetentionStrategy() instanceof SimpleScheduledRetentionStrategy;
+        }
+
     },
     /**
      * Uptime mins, used within SimpleScheduledRetentionStrategy.
@@ -220,6 +301,15 @@ public enum Setting {
         String getSettingString(Slave slave) {
             return String.valueOf(((SimpleScheduledRetentionStrategy)slave.getRetentionStrategy()).getUpTimeMins());
         }
+
+        /**
+         * Checks if the slave uses SimpleScheduledRetentionStrategy.
+         * @param slave which slave to check
+         * @return true if the setting is available
+         */
+        boolean isAvailable(Slave slave) {
+            return slave.getRetentionStrategy() instanceof SimpleScheduledRetentionStrategy;
+        }
     };
 
     /**
@@ -228,4 +318,14 @@ public enum Setting {
      * @return the setting string
      */
     abstract String getSettingString(Slave slave);
+
+    /**
+     * Checks if the setting type is available on a specific slave,
+     * settings within a launcher or an availability are only available on slaves using that type.
+     * @param slave which slave to check
+     * @return true if the setting is available
+     */
+    boolean isAvailable(Slave slave) {
+        return true;
+    }
 }
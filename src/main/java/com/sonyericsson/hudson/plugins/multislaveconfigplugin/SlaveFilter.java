@@ -0,0 +1,231 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import net.sf.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compiled chain of search criteria that a DumbSlave has to fulfill.
+ * The criteria are evaluated cheapest first, executors before name, and the evaluation stops at the first
+ * criterion that fails.
+ */
+public class SlaveFilter {
+
+    /**
+     * The cost of comparing the number of executors, cheapest of all.
+     */
+    private static final int EXECUTORS_COST = -1;
+
+    /**
+     * How many nodes to filter between each check if the search has been superseded.
+     */
+    private static final int CHECK_INTERVAL = 256;
+
+    private final List<Criterion> criteria = new ArrayList<Criterion>();
+
+    /**
+     * Compiles a filter with all the criteria in a submitted search form.
+     * @param searchParameters submitted form containing what to search for.
+     * @return the filter.
+     */
+    public static SlaveFilter compile(JSONObject searchParameters) {
+        return compile(SearchQuery.compile(searchParameters));
+    }
+
+    /**
+     * Compiles a filter with all the criteria in a search query.
+     * @param query what to search for.
+     * @return the filter.
+     */
+    public static SlaveFilter compile(SearchQuery query) {
+        SlaveFilter filter = new SlaveFilter();
+        if (query.hasExecutors()) {
+            filter.addExecutors(query.getExecutors());
+        }
+        for (SlaveIndex.Field field : SlaveIndex.Field.values()) {
+            filter.addSearch(field, query.getSearch(field));
+        }
+        return filter;
+    }
+
+    /**
+     * Adds a criterion on the number of executors.
+     * @param numExecutors the number of executors the slaves should have.
+     * @return this filter.
+     */
+    public SlaveFilter addExecutors(final int numExecutors) {
+        return add(new Criterion(EXECUTORS_COST) {
+            @Override
+            boolean matches(DumbSlave slave) {
+                return slave.getNumExecutors() == numExecutors;
+            }
+        });
+    }
+
+    /**
+     * Adds a criterion on a text field, see {@link SearchSlaves#hasSearchHit(DumbSlave, String, String)}.
+     * Empty search strings are ignored since they match all slaves.
+     * @param field the field to search in.
+     * @param searchString what to search for.
+     * @return this filter.
+     */
+    public SlaveFilter addSearch(SlaveIndex.Field field, String searchString) {
+        return addSearch(field, SearchQuery.FieldSearch.compile(searchString));
+    }
+
+    /**
+     * Adds a criterion on a text field with an already compiled search.
+     * Empty searches are ignored since they match all slaves.
+     * @param field the field to search in.
+     * @param search what to search for.
+     * @return this filter.
+     */
+    public SlaveFilter addSearch(final SlaveIndex.Field field, final SearchQuery.FieldSearch search) {
+        if (search.isEmpty()) {
+            return this;
+        }
+        return add(new Criterion(field.ordinal()) {
+            @Override
+            boolean matches(DumbSlave slave) {
+                return search.matches(SlaveIndex.getFieldValue(slave, field));
+            }
+        });
+    }
+
+    /**
+     * Adds a criterion and keeps the chain sorted by cost.
+     * @param criterion the criterion to add.
+     * @return this filter.
+     */
+    private SlaveFilter add(Criterion criterion) {
+        criteria.add(criterion);
+        Collections.sort(criteria);
+        return this;
+    }
+
+    /**
+     * Checks if the filter has no criteria, meaning that every slave matches.
+     * @return true if there are no criteria.
+     */
+    public boolean isEmpty() {
+        return criteria.isEmpty();
+    }
+
+    /**
+     * Checks if a node fulfills all criteria. Only DumbSlaves can match.
+     * @param node the node to check.
+     * @return true if it matched.
+     */
+    public boolean matches(Node node) {
+        if (!(node instanceof DumbSlave)) {
+            return false;
+        }
+        DumbSlave slave = (DumbSlave)node;
+        for (int i = 0; i < criteria.size(); i++) {
+            if (!criteria.get(i).matches(slave)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Filters nodes in a single pass.
+     * @param nodes the nodes to filter.
+     * @return a new list with the matching slaves, in the same order.
+     */
+    public NodeList filter(Collection<? extends Node> nodes) {
+        return filter(nodes, null);
+    }
+
+    /**
+     * Filters nodes in a single pass, giving up as soon as a newer search has arrived.
+     * @param nodes the nodes to filter.
+     * @param ticket the ticket of the search, or null if it can't be superseded.
+     * @return a new list with the matching slaves, in the same order.
+     * @throws java.util.concurrent.CancellationException if the search was superseded.
+     */
+    public NodeList filter(Collection<? extends Node> nodes, SearchSequencer.Ticket ticket) {
+        NodeList result = new NodeList(nodes.size());
+        if (ticket != null) {
+            ticket.checkSuperseded();
+        }
+        int checked = 0;
+        for (Node node : nodes) {
+            if (ticket != null && ++checked % CHECK_INTERVAL == 0) {
+                ticket.checkSuperseded();
+            }
+            if (matches(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A single search criterion.
+     */
+    private abstract static class Criterion implements Comparable<Criterion> {
+
+        private final int cost;
+
+        /**
+         * Standard constructor.
+         * @param cost the relative cost of evaluating this criterion.
+         */
+        Criterion(int cost) {
+            this.cost = cost;
+        }
+
+        /**
+         * Checks if a slave fulfills this criterion.
+         * @param slave the slave to check.
+         * @return true if it did.
+         */
+        abstract boolean matches(DumbSlave slave);
+
+        /**
+         * Compares the cost of two criteria.
+         * @param other the criterion to compare with.
+         * @return negative if this one is cheaper.
+         */
+        public int compareTo(Criterion other) {
+            if (cost < other.cost) {
+                return -1;
+            }
+            if (cost > other.cost) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,717 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the Jenkins registered DumbSlaves.
+ * Every searchable field is split into the same lower case tokens as {@link SearchSlaves#hasSearchHit}
+ * uses, and each distinct token points to the slaves having it. The index is synchronized incrementally
+ * with the master node list whenever the {@link NodeListVersion} has changed: only nodes that were added,
+ * removed or replaced since the last search are (re)indexed. Any number of searches can read the index in parallel,
+ * syncing it takes an exclusive lock.
+ * Labels are indexed as whole labels, from the {@link LabelDictionary} id of each label to the slaves carrying it,
+ * which answers both searches in the label field and if any slave in a selection carries a label.
+ * A search token matches every indexed token or label containing it. To find those without going through all of
+ * them, the distinct tokens of each field and the labels are in turn indexed by their substrings of up to three
+ * characters, see {@link TermIndex}; only tokens longer than that are checked against the candidate terms.
+ * All slaves are also kept as a read only snapshot, so searches without any criteria don't copy the whole fleet.
+ * When most labels in the dictionary are no longer carried by any slave, the index is rebuilt with a new
+ * dictionary at the end of the sync, so labels of deleted slaves don't stay interned.
+ */
+public final class SlaveIndex {
+
+    private static final SlaveIndex INSTANCE = new SlaveIndex();
+
+    /**
+     * The text fields that are indexed.
+     */
+    enum Field {
+        /**
+         * The node name.
+         */
+        NAME,
+        /**
+         * The label string.
+         */
+        LABELS,
+        /**
+         * The remote FS root.
+         */
+        REMOTE_FS,
+        /**
+         * The node description.
+         */
+        DESCRIPTION;
+
+        /**
+         * Gets the raw value of this field on a specific slave.
+         * @param slave the slave to get the value from.
+         * @return the value, never null.
+         */
+        String getValue(DumbSlave slave) {
+            String value;
+            switch (this) {
+                case NAME:
+                    value = slave.getNodeName();
+                    break;
+                case LABELS:
+                    value = slave.getLabelString();
+                    break;
+                case REMOTE_FS:
+                    value = slave.getRemoteFS();
+                    break;
+                default:
+                    value = slave.getNodeDescription();
+                    break;
+            }
+            if (value == null) {
+                return "";
+            }
+            return value;
+        }
+    }
+
+    private final Map<Node, FieldValue[]> entries = new IdentityHashMap<Node, FieldValue[]>();
+    private final Map<Field, Map<String, Set<DumbSlave>>> postings =
+            new EnumMap<Field, Map<String, Set<DumbSlave>>>(Field.class);
+    private final Map<Integer, Set<DumbSlave>> executorPostings = new HashMap<Integer, Set<DumbSlave>>();
+    private final Map<Integer, Set<DumbSlave>> labelPostings = new HashMap<Integer, Set<DumbSlave>>();
+    private final Map<Field, TermIndex<String>> terms = new EnumMap<Field, TermIndex<String>>(Field.class);
+    private final TermIndex<Integer> labelTerms = new TermIndex<Integer>();
+    private final Set<DumbSlave> allSlaves = newIdentitySet();
+    private volatile Set<DumbSlave> allSnapshot = Collections.emptySet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private LabelDictionary dictionary = LabelDictionary.current();
+    private volatile long syncedVersion = -1;
+    private volatile Hudson owner;
+
+    /**
+     * Only one index per master.
+     */
+    private SlaveIndex() {
+        for (Field field : Field.values()) {
+            postings.put(field, new HashMap<String, Set<DumbSlave>>());
+            terms.put(field, new TermIndex<String>());
+        }
+    }
+
+    /**
+     * Gets the index, synchronized with the current master node list.
+     * @return the index.
+     */
+    public static SlaveIndex getInstance() {
+        INSTANCE.sync();
+        return INSTANCE;
+    }
+
+    /**
+     * Marks the index as out of date, the next search will pick up the changed nodes.
+     * The same as {@link NodeListVersion#changed()}.
+     */
+    public static void invalidate() {
+        NodeListVersion.changed();
+    }
+
+    /**
+     * Brings the index up to date with the master node list if it has changed since the last sync.
+     * Nodes are compared by identity since Jenkins replaces the node instance whenever it is reconfigured.
+     */
+    private void sync() {
+        Hudson app = Hudson.getInstance();
+        long version = NodeListVersion.get();
+        if (version == syncedVersion && app == owner) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            syncLocked(app, version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Brings the index up to date while holding the write lock.
+     * @param app the current Jenkins instance.
+     * @param version the node list version to bring the index up to.
+     */
+    private void syncLocked(Hudson app, long version) {
+        if (version == syncedVersion && app == owner) {
+            return;
+        }
+        if (app != owner) {
+            clear();
+            dictionary = LabelDictionary.renew();
+            owner = app;
+        }
+        syncedVersion = version;
+        List<Node> nodes = Collections.emptyList();
+        if (app != null) {
+            nodes = app.getNodes();
+        }
+        Map<Node, Boolean> current = new IdentityHashMap<Node, Boolean>(nodes.size());
+        for (Node node : nodes) {
+            if (node instanceof DumbSlave) {
+                current.put(node, Boolean.TRUE);
+                if (!entries.containsKey(node)) {
+                    add((DumbSlave)node);
+                }
+            }
+        }
+        if (entries.size() > current.size()) {
+            DumbSlave[] indexed = allSlaves.toArray(new DumbSlave[allSlaves.size()]);
+            for (DumbSlave slave : indexed) {
+                if (!current.containsKey(slave)) {
+                    remove(slave);
+                }
+            }
+        }
+        if (dictionary.isWasteful(labelPostings.size())) {
+            renewDictionary();
+        }
+        if (allSnapshot == null) {
+            Set<DumbSlave> snapshot = newIdentitySet();
+            snapshot.addAll(allSlaves);
+            allSnapshot = Collections.unmodifiableSet(snapshot);
+        }
+    }
+
+    /**
+     * Reindexes all slaves with a new {@link LabelDictionary}, holding only the labels that are still in use.
+     * The old dictionary is left as it is for anyone still holding label sets from it.
+     */
+    private void renewDictionary() {
+        DumbSlave[] indexed = allSlaves.toArray(new DumbSlave[allSlaves.size()]);
+        clear();
+        dictionary = LabelDictionary.renew();
+        for (DumbSlave slave : indexed) {
+            add(slave);
+        }
+    }
+
+    /**
+     * Gets the number of labels in the dictionary the index uses, for tests.
+     * @return the number of labels.
+     */
+    int getDictionarySize() {
+        lock.readLock().lock();
+        try {
+            return dictionary.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Empties the whole index.
+     */
+    private void clear() {
+        entries.clear();
+        allSlaves.clear();
+        allSnapshot = null;
+        executorPostings.clear();
+        labelPostings.clear();
+        labelTerms.clear();
+        for (Map<String, Set<DumbSlave>> fieldPostings : postings.values()) {
+            fieldPostings.clear();
+        }
+        for (TermIndex<String> fieldTerms : terms.values()) {
+            fieldTerms.clear();
+        }
+    }
+
+    /**
+     * Adds the postings for a slave.
+     * @param slave the slave to index.
+     */
+    private void add(DumbSlave slave) {
+        FieldValue[] values = new FieldValue[Field.values().length];
+        for (Field field : Field.values()) {
+            values[field.ordinal()] = new FieldValue(slave, field.getValue(slave));
+            if (field == Field.LABELS) {
+                addLabelPostings(slave, values[field.ordinal()].getLabelSet(dictionary));
+                continue;
+            }
+            Map<String, Set<DumbSlave>> fieldPostings = postings.get(field);
+            for (String token : values[field.ordinal()].getTokens()) {
+                Set<DumbSlave> slaves = fieldPostings.get(token);
+                if (slaves == null) {
+                    slaves = newIdentitySet();
+                    fieldPostings.put(token, slaves);
+                    terms.get(field).add(token, token);
+                }
+                slaves.add(slave);
+            }
+        }
+        Set<DumbSlave> slaves = executorPostings.get(slave.getNumExecutors());
+        if (slaves == null) {
+            slaves = newIdentitySet();
+            executorPostings.put(slave.getNumExecutors(), slaves);
+        }
+        slaves.add(slave);
+        entries.put(slave, values);
+        allSlaves.add(slave);
+        allSnapshot = null;
+    }
+
+    /**
+     * Removes the postings for a slave.
+     * @param slave the slave to remove.
+     */
+    private void remove(DumbSlave slave) {
+        FieldValue[] values = entries.remove(slave);
+        if (values == null) {
+            return;
+        }
+        for (Field field : Field.values()) {
+            if (field == Field.LABELS) {
+                removeLabelPostings(slave, values[field.ordinal()].getLabelSet(dictionary));
+                continue;
+            }
+            Map<String, Set<DumbSlave>> fieldPostings = postings.get(field);
+            for (String token : values[field.ordinal()].getTokens()) {
+                Set<DumbSlave> slaves = fieldPostings.get(token);
+                if (slaves != null) {
+                    slaves.remove(slave);
+                    if (slaves.isEmpty()) {
+                        fieldPostings.remove(token);
+                        terms.get(field).remove(token);
+                    }
+                }
+            }
+        }
+        Set<DumbSlave> slaves = executorPostings.get(slave.getNumExecutors());
+        if (slaves != null) {
+            slaves.remove(slave);
+            if (slaves.isEmpty()) {
+                executorPostings.remove(slave.getNumExecutors());
+            }
+        }
+        allSlaves.remove(slave);
+        allSnapshot = null;
+    }
+
+    /**
+     * Adds the label postings for a slave.
+     * @param slave the slave to index.
+     * @param labels the labels of the slave.
+     */
+    private void addLabelPostings(DumbSlave slave, LabelSet labels) {
+        for (int id = labels.nextId(0); id >= 0; id = labels.nextId(id + 1)) {
+            Set<DumbSlave> slaves = labelPostings.get(id);
+            if (slaves == null) {
+                slaves = newIdentitySet();
+                labelPostings.put(id, slaves);
+                labelTerms.add(id, dictionary.getSearchableLabel(id));
+            }
+            slaves.add(slave);
+        }
+    }
+
+    /**
+     * Removes the label postings for a slave.
+     * @param slave the slave to remove.
+     * @param labels the labels the slave was indexed with.
+     */
+    private void removeLabelPostings(DumbSlave slave, LabelSet labels) {
+        for (int id = labels.nextId(0); id >= 0; id = labels.nextId(id + 1)) {
+            Set<DumbSlave> slaves = labelPostings.get(id);
+            if (slaves != null) {
+                slaves.remove(slave);
+                if (slaves.isEmpty()) {
+                    labelPostings.remove(id);
+                    labelTerms.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits a field value into searchable tokens, the same way as {@link SearchSlaves#hasSearchHit} does.
+     * An empty value has no tokens at all, since it can never give a search hit.
+     * @param value the raw field value.
+     * @return the tokens.
+     */
+    static String[] tokenize(String value) {
+        if (value == null || value.isEmpty()) {
+            return new String[0];
+        }
+        return SearchSlaves.makeSearchable(value).split("\\s+");
+    }
+
+    /**
+     * Gets the searchable value of a field on a slave. Indexed slaves reuse the value from the index,
+     * including its cached environment variable form, other slaves get a new value.
+     * @param slave the slave.
+     * @param field the field.
+     * @return the value.
+     */
+    static FieldValue getFieldValue(DumbSlave slave, Field field) {
+        FieldValue[] values;
+        INSTANCE.lock.readLock().lock();
+        try {
+            values = INSTANCE.entries.get(slave);
+        } finally {
+            INSTANCE.lock.readLock().unlock();
+        }
+        if (values == null) {
+            return new FieldValue(slave, field.getValue(slave));
+        }
+        return values[field.ordinal()];
+    }
+
+    /**
+     * Gets all indexed slaves, without copying them.
+     * The snapshot is taken once at the end of each sync that added or removed slaves, so it can be iterated
+     * while the index is synced again.
+     * @return a read only set with all slaves.
+     */
+    Set<DumbSlave> getAll() {
+        return allSnapshot;
+    }
+
+    /**
+     * Gets the slaves with a specific number of executors.
+     * @param numExecutors the number of executors.
+     * @return a new set with the matching slaves.
+     */
+    Set<DumbSlave> getByExecutors(int numExecutors) {
+        Set<DumbSlave> result = newIdentitySet();
+        lock.readLock().lock();
+        try {
+            Set<DumbSlave> slaves = executorPostings.get(numExecutors);
+            if (slaves != null) {
+                result.addAll(slaves);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the slaves having a token in the given field that contains the search token.
+     * The matching tokens are looked up in the {@link TermIndex} of the field, so only their postings are read.
+     * @param field the field to search in.
+     * @param searchToken the lower case token to search for.
+     * @return a new set with the matching slaves.
+     */
+    Set<DumbSlave> getByToken(Field field, String searchToken) {
+        Set<DumbSlave> result = newIdentitySet();
+        lock.readLock().lock();
+        try {
+            if (field == Field.LABELS) {
+                for (Integer id : labelTerms.find(searchToken)) {
+                    result.addAll(labelPostings.get(id));
+                }
+                return result;
+            }
+            Map<String, Set<DumbSlave>> fieldPostings = postings.get(field);
+            for (String token : terms.get(field).find(searchToken)) {
+                result.addAll(fieldPostings.get(token));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the slaves carrying a label, compared exactly.
+     * @param label the label.
+     * @return a new set with the slaves.
+     */
+    Set<DumbSlave> getByLabel(String label) {
+        Set<DumbSlave> result = newIdentitySet();
+        lock.readLock().lock();
+        try {
+            int id = dictionary.lookup(label);
+            if (id < 0) {
+                return result;
+            }
+            Set<DumbSlave> slaves = labelPostings.get(id);
+            if (slaves != null) {
+                result.addAll(slaves);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Checks if any of the given slaves carries a label, by intersecting them with the slaves carrying it.
+     * The smaller of the two sets is the one that is iterated.
+     * @param slaves the slaves, all of them indexed, see {@link #getIndexed(Collection)}.
+     * @param label the label, compared exactly.
+     * @return true if any of them carries it.
+     */
+    boolean anyHasLabel(Set<DumbSlave> slaves, String label) {
+        lock.readLock().lock();
+        try {
+            int id = dictionary.lookup(label);
+            if (id < 0) {
+                return false;
+            }
+            Set<DumbSlave> carriers = labelPostings.get(id);
+            if (carriers == null) {
+                return false;
+            }
+            Set<DumbSlave> smaller = carriers;
+            Set<DumbSlave> larger = slaves;
+            if (slaves.size() < carriers.size()) {
+                smaller = slaves;
+                larger = carriers;
+            }
+            for (DumbSlave slave : smaller) {
+                if (larger.contains(slave)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the nodes that are indexed, the same instances as the index holds.
+     * @param nodes the nodes.
+     * @return a new set with the indexed DumbSlaves among the nodes.
+     */
+    Set<DumbSlave> getIndexed(Collection<? extends Node> nodes) {
+        Set<DumbSlave> result = newIdentitySet();
+        lock.readLock().lock();
+        try {
+            for (Node node : nodes) {
+                if (node instanceof DumbSlave && entries.containsKey(node)) {
+                    result.add((DumbSlave)node);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new empty set comparing slaves by identity.
+     * @return the set.
+     */
+    static Set<DumbSlave> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<DumbSlave, Boolean>());
+    }
+
+    /**
+     * Substring index over the distinct terms of a field, from every substring of up to {@link #GRAM_LENGTH}
+     * characters to the terms containing it.
+     * A search token that short is answered by a single lookup. A longer one is looked up by each of its substrings
+     * of that length, and only the terms under the rarest of them are checked for the whole token.
+     * Guarded by the lock of the index.
+     * @param <K> what the terms are identified by.
+     */
+    static final class TermIndex<K> {
+
+        /**
+         * The length of the longest substrings that are indexed.
+         */
+        static final int GRAM_LENGTH = 3;
+
+        private final Map<K, String> terms = new HashMap<K, String>();
+        private final Map<String, Set<K>> grams = new HashMap<String, Set<K>>();
+
+        /**
+         * Adds a term.
+         * @param key what the term is identified by.
+         * @param term the lower case term.
+         */
+        void add(K key, String term) {
+            terms.put(key, term);
+            for (String gram : getGrams(term)) {
+                Set<K> keys = grams.get(gram);
+                if (keys == null) {
+                    keys = new HashSet<K>();
+                    grams.put(gram, keys);
+                }
+                keys.add(key);
+            }
+        }
+
+        /**
+         * Removes a term.
+         * @param key what the term is identified by.
+         */
+        void remove(K key) {
+            String term = terms.remove(key);
+            if (term == null) {
+                return;
+            }
+            for (String gram : getGrams(term)) {
+                Set<K> keys = grams.get(gram);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        grams.remove(gram);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes all terms.
+         */
+        void clear() {
+            terms.clear();
+            grams.clear();
+        }
+
+        /**
+         * Finds the terms containing a search token. An empty token is contained in every term.
+         * @param searchToken the lower case token to search for.
+         * @return the keys of the matching terms, only valid until the index is changed.
+         */
+        Collection<K> find(String searchToken) {
+            if (searchToken.isEmpty()) {
+                return terms.keySet();
+            }
+            if (searchToken.length() <= GRAM_LENGTH) {
+                Set<K> keys = grams.get(searchToken);
+                if (keys == null) {
+                    return Collections.emptySet();
+                }
+                return keys;
+            }
+            Set<K> rarest = null;
+            for (int start = 0; start + GRAM_LENGTH <= searchToken.length(); start++) {
+                Set<K> keys = grams.get(searchToken.substring(start, start + GRAM_LENGTH));
+                if (keys == null) {
+                    return Collections.emptySet();
+                }
+                if (rarest == null || keys.size() < rarest.size()) {
+                    rarest = keys;
+                }
+            }
+            List<K> result = new ArrayList<K>();
+            for (K key : rarest) {
+                if (terms.get(key).contains(searchToken)) {
+                    result.add(key);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Gets the distinct substrings of a term that are indexed.
+         * @param term the term.
+         * @return the substrings of up to {@link #GRAM_LENGTH} characters.
+         */
+        private static Set<String> getGrams(String term) {
+            Set<String> result = new HashSet<String>();
+            for (int length = 1; length <= GRAM_LENGTH; length++) {
+                for (int start = 0; start + length <= term.length(); start++) {
+                    result.add(term.substring(start, start + length));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The searchable form of a field value on a slave.
+     * The environment variable form, where the node name is replaced by $NAME, is only interpreted the first
+     * time a search needs it, and then kept for as long as the slave instance is indexed.
+     */
+    static final class FieldValue {
+
+        private final DumbSlave slave;
+        private final String value;
+        private final String[] tokens;
+        private volatile String[] environmentTokens;
+        private volatile LabelSet labelSet;
+
+        /**
+         * Standard constructor.
+         * @param slave the slave to interpret environment variables on.
+         * @param value the raw field value.
+         */
+        FieldValue(DumbSlave slave, String value) {
+            this.slave = slave;
+            this.value = value;
+            this.tokens = tokenize(value);
+        }
+
+        /**
+         * Gets the lower case tokens of the value.
+         * @return the tokens.
+         */
+        String[] getTokens() {
+            return tokens;
+        }
+
+        /**
+         * Gets the lower case tokens of the value with environment variables interpreted.
+         * @return the tokens.
+         */
+        String[] getEnvironmentTokens() {
+            String[] result = environmentTokens;
+            if (result == null) {
+                result = tokenize(EnvironmentVariables.toVariables(slave, value));
+                environmentTokens = result;
+            }
+            return result;
+        }
+
+        /**
+         * Gets the value as a set of labels, only split the first time it's needed with each dictionary.
+         * @param dictionary the dictionary the label ids should come from.
+         * @return the labels.
+         */
+        LabelSet getLabelSet(LabelDictionary dictionary) {
+            LabelSet result = labelSet;
+            if (result == null || !result.isFrom(dictionary)) {
+                result = LabelSet.parse(dictionary, value);
+                labelSet = result;
+            }
+            return result;
+        }
+    }
+}
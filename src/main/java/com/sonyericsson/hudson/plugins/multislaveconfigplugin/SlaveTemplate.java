@@ -0,0 +1,134 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.os.windows.ManagedWindowsServiceLauncher;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The settings of a slave to create several slaves from, compiled once.
+ * Creating a slave from it interprets the environment variables in the settings and builds one DumbSlave per name.
+ * The launcher is interpreted by {@link EnvironmentVariables#launcherFromVariables}, so launchers without
+ * environment variables are shared by all created slaves, the same way as when the settings of several slaves are
+ * changed.
+ * The slaves are built one after the other in the calling thread, not in parallel: building a DumbSlave from the
+ * template takes microseconds, so handing the names out to a thread pool would cost more than the work itself.
+ */
+public final class SlaveTemplate {
+
+    private final String description;
+    private final String remoteFS;
+    private final String numExecutors;
+    private final Node.Mode mode;
+    private final String labels;
+    private final ComputerLauncher launcher;
+    private final RetentionStrategy retentionStrategy;
+    private final List<? extends NodeProperty<?>> nodeProperties;
+
+    /**
+     * Standard constructor.
+     * @param description the description, possibly with environment variables.
+     * @param remoteFS the remote FS root, possibly with environment variables.
+     * @param numExecutors the number of executors.
+     * @param mode the usage mode.
+     * @param labels the labels, possibly with environment variables.
+     * @param launcher the launcher, possibly with environment variables.
+     * @param retentionStrategy the availability.
+     * @param nodeProperties the node properties.
+     */
+    private SlaveTemplate(String description, String remoteFS, String numExecutors, Node.Mode mode,
+                          String labels, ComputerLauncher launcher, RetentionStrategy retentionStrategy,
+                          List<? extends NodeProperty<?>> nodeProperties) {
+        this.description = description;
+        this.remoteFS = remoteFS;
+        this.numExecutors = numExecutors;
+        this.mode = mode;
+        this.labels = labels;
+        this.launcher = launcher;
+        this.retentionStrategy = retentionStrategy;
+        this.nodeProperties = nodeProperties;
+    }
+
+    /**
+     * Compiles a template with the settings of an existing slave.
+     * The slave should already have its node name switched to environment variables, if that is wanted.
+     * @param slave the slave to copy.
+     * @return the template.
+     */
+    public static SlaveTemplate compile(DumbSlave slave) {
+        return new SlaveTemplate(slave.getNodeDescription(), slave.getRemoteFS(),
+                String.valueOf(slave.getNumExecutors()), slave.getMode(), slave.getLabelString(),
+                slave.getLauncher(), slave.getRetentionStrategy(), slave.getNodeProperties().toList());
+    }
+
+    /**
+     * Compiles a template with the settings of a new slave, before the user has configured anything.
+     * @return the template.
+     */
+    public static SlaveTemplate newSlave() {
+        return new SlaveTemplate("", "", "", Node.Mode.NORMAL, "", new ManagedWindowsServiceLauncher("", ""),
+                new RetentionStrategy.Always(), Collections.<NodeProperty<?>>emptyList());
+    }
+
+    /**
+     * Creates a slave from the template, with environment variables interpreted.
+     * @param slaveName the name of the slave.
+     * @return the slave.
+     * @throws IOException if slave creation goes wrong.
+     * @throws Descriptor.FormException if slave creation goes wrong.
+     */
+    public DumbSlave create(String slaveName) throws IOException, Descriptor.FormException {
+        return new DumbSlave(slaveName, EnvironmentVariables.fromVariables(slaveName, description),
+                EnvironmentVariables.fromVariables(slaveName, remoteFS), numExecutors, mode,
+                EnvironmentVariables.fromVariables(slaveName, labels),
+                EnvironmentVariables.launcherFromVariables(slaveName, launcher), retentionStrategy, nodeProperties);
+    }
+
+    /**
+     * Creates one slave per name, in the calling thread. Building a slave from the compiled template takes
+     * microseconds, far less than handing the work to other threads would.
+     * @param slaveNames the names of the slaves.
+     * @return the slaves, in the same order as the names.
+     * @throws IOException if slave creation goes wrong.
+     * @throws Descriptor.FormException if slave creation goes wrong.
+     */
+    public NodeList createAll(Collection<String> slaveNames) throws IOException, Descriptor.FormException {
+        NodeList nodeList = new NodeList(slaveNames.size());
+        for (String name : slaveNames) {
+            nodeList.add(create(name));
+        }
+        return nodeList;
+    }
+}
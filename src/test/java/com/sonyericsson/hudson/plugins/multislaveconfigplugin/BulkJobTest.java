@@ -0,0 +1,238 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Failure;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.NodeManageLink.UserMode.CONFIGURE;
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.NodeManageLink.UserMode.LAUNCH;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link BulkJob} using JUnit Tests.
+ */
+public class BulkJobTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Tests {@link BulkJob#submit(NodeManageLink.UserMode, int, BulkJob.Work)}.
+     * The work should run in the background and its progress and result page be recorded.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testSubmit() throws Exception {
+        BulkJob job = BulkJob.submit(CONFIGURE, 2, new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                report.nodeDone("slave1", 1);
+                report.nodeDone("slave2", 1);
+                return "applied";
+            }
+        });
+        assertSame(job, BulkJob.get(job.getId()));
+        assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+        assertEquals(BulkJob.State.DONE, job.getState());
+        assertEquals("applied", job.getResultPage());
+        assertEquals(2, job.getDone());
+        assertEquals(0, job.getFailed());
+        assertEquals(0, job.getEtaMillis());
+        assertNull(job.getFailure());
+    }
+
+    /**
+     * Tests {@link BulkJob#run()}.
+     * A failure should finish the job with the message of the failure.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        BulkJob job = BulkJob.submit(CONFIGURE, 1, new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                report.nodeDone("slave1", 1);
+                report.nodeFailed("slave1");
+                throw new Failure("Could not change slave1");
+            }
+        });
+        assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+        assertEquals(BulkJob.State.FAILED, job.getState());
+        assertEquals("Could not change slave1", job.getFailure());
+        assertEquals(0, job.getDone());
+        assertEquals(1, job.getFailed());
+        assertNull(job.getResultPage());
+    }
+
+    /**
+     * Tests {@link BulkJob#run()}.
+     * An error, not only exceptions, should finish the job as failed instead of leaving it running.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testError() throws Exception {
+        BulkJob job = BulkJob.submit(CONFIGURE, 1, new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                throw new LinkageError("launcher class missing");
+            }
+        });
+        assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+        assertEquals(BulkJob.State.FAILED, job.getState());
+        assertTrue(job.isFinished());
+        assertTrue(job.getFailure().contains("launcher class missing"));
+    }
+
+    /**
+     * Tests {@link BulkJob#run()} and {@link BulkJob#isOwnedBy(Authentication)}.
+     * The work should run as the user that submitted the job, and only that user should own the job.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testRunsAsSubmitter() throws Exception {
+        Authentication alice = new UsernamePasswordAuthenticationToken("alice", "secret");
+        final AtomicReference<Authentication> runAs = new AtomicReference<Authentication>();
+        BulkJob job;
+        SecurityContextHolder.getContext().setAuthentication(alice);
+        try {
+            job = BulkJob.submit(CONFIGURE, 1, new BulkJob.Work() {
+                public String run(ApplyReport report) {
+                    runAs.set(SecurityContextHolder.getContext().getAuthentication());
+                    return "applied";
+                }
+            });
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+        assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+        assertSame(alice, runAs.get());
+        assertTrue(job.isOwnedBy(new UsernamePasswordAuthenticationToken("alice", "")));
+        assertFalse(job.isOwnedBy(new UsernamePasswordAuthenticationToken("bob", "")));
+        assertFalse(job.isOwnedBy(null));
+    }
+
+    /**
+     * Tests {@link BulkJob#submit(NodeManageLink.UserMode, int, BulkJob.Work)}.
+     * Jobs that don't fit in the queue should be refused.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testQueueBounded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        BulkJob.Work blocked = new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "applied";
+            }
+        };
+        List<BulkJob> jobs = new ArrayList<BulkJob>();
+        try {
+            for (int i = 0; i < BulkJob.THREADS; i++) {
+                jobs.add(BulkJob.submit(CONFIGURE, 1, blocked));
+            }
+            //The threads have to be taken before the rest of the jobs fill the queue
+            for (BulkJob job : jobs) {
+                while (job.getState() == BulkJob.State.QUEUED) {
+                    Thread.sleep(1);
+                }
+            }
+            for (int i = 0; i < BulkJob.QUEUE_CAPACITY; i++) {
+                jobs.add(BulkJob.submit(CONFIGURE, 1, blocked));
+            }
+            try {
+                BulkJob.submit(CONFIGURE, 1, blocked);
+                fail("The job should have been refused");
+            } catch (Failure e) {
+                assertEquals(Messages.TooManyBulkJobs(), e.getMessage());
+            }
+        } finally {
+            release.countDown();
+        }
+        for (BulkJob job : jobs) {
+            assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+            assertEquals(BulkJob.State.DONE, job.getState());
+        }
+    }
+
+    /**
+     * Tests {@link BulkJob#submit(BulkJob.Kind, NodeManageLink.UserMode, int, BulkJob.Work)}.
+     * Connect jobs that are waiting for slaves should not hold up change jobs.
+     * @throws Exception if so.
+     */
+    @Test
+    public void testKindsRunSeparately() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        BulkJob.Work blocked = new BulkJob.Work() {
+            public String run(ApplyReport report) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "launched";
+            }
+        };
+        List<BulkJob> jobs = new ArrayList<BulkJob>();
+        try {
+            for (int i = 0; i < BulkJob.CONNECT_THREADS; i++) {
+                jobs.add(BulkJob.submit(BulkJob.Kind.CONNECT, LAUNCH, 1, blocked));
+            }
+            BulkJob change = BulkJob.submit(CONFIGURE, 1, new BulkJob.Work() {
+                public String run(ApplyReport report) {
+                    return "applied";
+                }
+            });
+            assertEquals(BulkJob.Kind.CHANGE, change.getKind());
+            assertTrue(change.awaitFinished(TIMEOUT_MILLIS));
+            assertEquals(BulkJob.State.DONE, change.getState());
+        } finally {
+            release.countDown();
+        }
+        for (BulkJob job : jobs) {
+            assertTrue(job.awaitFinished(TIMEOUT_MILLIS));
+            assertEquals(BulkJob.Kind.CONNECT, job.getKind());
+        }
+    }
+
+    /**
+     * Tests {@link BulkJob#estimateEtaMillis(BulkJob.State, long, long, int, int)}.
+     */
+    @Test
+    public void testEstimateEtaMillis() {
+        assertEquals(-1, BulkJob.estimateEtaMillis(BulkJob.State.QUEUED, 0, 0, 0, 10));
+        assertEquals(-1, BulkJob.estimateEtaMillis(BulkJob.State.RUNNING, 1000, 2000, 0, 10));
+        assertEquals(3000, BulkJob.estimateEtaMillis(BulkJob.State.RUNNING, 1000, 2000, 25, 100));
+        assertEquals(0, BulkJob.estimateEtaMillis(BulkJob.State.DONE, 1000, 2000, 25, 100));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.SlaveComputer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link BulkLauncher} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DumbSlave.class, Computer.class, SlaveComputer.class })
+public class BulkLauncherTest {
+
+    /**
+     * Creates a mocked slave.
+     * @param name the node name.
+     * @param computer the computer of the slave, or null if it has none.
+     * @return the mocked slave.
+     */
+    private static DumbSlave createSlave(String name, Computer computer) {
+        DumbSlave slave = mock(DumbSlave.class);
+        when(slave.getNodeName()).thenReturn(name);
+        when(slave.toComputer()).thenReturn(computer);
+        return slave;
+    }
+
+    /**
+     * Creates a future that is done already.
+     * @return the future.
+     */
+    private static Future<Object> doneFuture() {
+        FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Tests {@link BulkLauncher#run(ApplyReport)}.
+     * Each slave should end in the state matching its computer, and be recorded as done or failed.
+     */
+    @Test
+    public void testRun() {
+        SlaveComputer online = mock(SlaveComputer.class);
+        when(online.isOnline()).thenReturn(true);
+        SlaveComputer launched = mock(SlaveComputer.class);
+        when(launched.isOnline()).thenReturn(false, true);
+        Future future = doneFuture();
+        when(launched.connect(false)).thenReturn(future);
+        SlaveComputer broken = mock(SlaveComputer.class);
+        when(broken.isOnline()).thenReturn(false);
+        when(broken.connect(false)).thenReturn(future);
+        SlaveComputer hanging = mock(SlaveComputer.class);
+        when(hanging.isOnline()).thenReturn(false);
+        Future never = new FutureTask<Object>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+        when(hanging.connect(false)).thenReturn(never);
+
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(createSlave("online", online));
+        nodes.add(createSlave("launched", launched));
+        nodes.add(createSlave("broken", broken));
+        nodes.add(createSlave("hanging", hanging));
+        nodes.add(createSlave("noExecutors", null));
+
+        BulkLauncher launcher = new BulkLauncher(nodes, 2, 0, 1);
+        ApplyReport report = new ApplyReport();
+        assertEquals("launched", launcher.run(report));
+
+        List<BulkLauncher.Launch> launches = launcher.getLaunches();
+        assertEquals(BulkLauncher.State.ALREADY_ONLINE, launches.get(0).getState());
+        assertEquals(BulkLauncher.State.ONLINE, launches.get(1).getState());
+        assertEquals(BulkLauncher.State.FAILED, launches.get(2).getState());
+        assertEquals(Messages.SlaveNotOnlineAfterLaunch(), launches.get(2).getMessage());
+        assertEquals(BulkLauncher.State.TIMED_OUT, launches.get(3).getState());
+        assertTrue(never.isCancelled());
+        assertEquals(BulkLauncher.State.FAILED, launches.get(4).getState());
+        assertEquals(2, report.getDoneCount());
+        assertEquals(3, report.getFailedCount());
+        assertEquals(5, launcher.toJSON().size());
+    }
+
+    /**
+     * Tests {@link BulkLauncher#run(ApplyReport)}.
+     * A slave that connects back on its own after its launcher has finished, like a JNLP slave, should be
+     * waited for until it is online instead of failing when the launcher finishes.
+     */
+    @Test
+    public void testOnlineAfterLauncherFinished() {
+        SlaveComputer jnlp = mock(SlaveComputer.class);
+        //Offline when started and for the first two polls after the launcher has finished
+        when(jnlp.isOnline()).thenReturn(false, false, false, true);
+        Future future = doneFuture();
+        when(jnlp.connect(false)).thenReturn(future);
+
+        BulkLauncher launcher = new BulkLauncher(Collections.singletonList(createSlave("jnlp", jnlp)), 1, 0, 10);
+        ApplyReport report = new ApplyReport();
+        launcher.run(report);
+
+        BulkLauncher.Launch launch = launcher.getLaunches().get(0);
+        assertEquals(BulkLauncher.State.ONLINE, launch.getState());
+        assertNull(launch.getMessage());
+        assertEquals(1, report.getDoneCount());
+        assertEquals(0, report.getFailedCount());
+    }
+
+    /**
+     * Tests {@link BulkLauncher#run(ApplyReport)}.
+     * No more slaves than the concurrency cap should be connecting at the same time.
+     */
+    @Test
+    public void testConcurrencyCap() {
+        final int cap = 3;
+        final AtomicInteger connecting = new AtomicInteger();
+        final AtomicInteger maxConnecting = new AtomicInteger();
+        final ScheduledExecutorService connector = Executors.newSingleThreadScheduledExecutor();
+        Answer<Future> slowConnect = new Answer<Future>() {
+            public Future answer(InvocationOnMock invocation) throws Throwable {
+                int now = connecting.incrementAndGet();
+                synchronized (maxConnecting) {
+                    maxConnecting.set(Math.max(maxConnecting.get(), now));
+                }
+                //Connects in the background, like Jenkins does
+                return connector.schedule(new Runnable() {
+                    public void run() {
+                        connecting.decrementAndGet();
+                    }
+                }, 20, TimeUnit.MILLISECONDS);
+            }
+        };
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < 12; i++) {
+            SlaveComputer computer = mock(SlaveComputer.class);
+            when(computer.isOnline()).thenReturn(false, true);
+            when(computer.connect(false)).thenAnswer(slowConnect);
+            nodes.add(createSlave("slave" + i, computer));
+        }
+
+        ApplyReport report = new ApplyReport();
+        try {
+            new BulkLauncher(nodes, cap, 0, 10).run(report);
+        } finally {
+            connector.shutdown();
+        }
+        assertEquals(12, report.getDoneCount());
+        assertTrue(maxConnecting.get() <= cap);
+        assertTrue(maxConnecting.get() > 1);
+    }
+
+    /**
+     * Tests {@link BulkLauncher#run(ApplyReport)}.
+     * The connections should be started at least the stagger time apart.
+     */
+    @Test
+    public void testStagger() {
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < 4; i++) {
+            nodes.add(createSlave("slave" + i, null));
+        }
+        long start = System.currentTimeMillis();
+        new BulkLauncher(nodes, 10, 50, 10).run(new ApplyReport());
+        assertTrue(System.currentTimeMillis() - start >= 150);
+        assertTrue(new BulkLauncher(Collections.<Node>emptyList(), 1, 50, 10).getLaunches().isEmpty());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Node;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests {@link ChangeSet} using HudsonTestCases.
+ */
+public class ChangeSetHudsonTest extends HudsonTestCase {
+
+    private DumbSlave slave;
+    private HashMap<String, Object> settings;
+
+    /**
+     * Sets up the tests with a slave and no settings.
+     * @throws Exception if super.setUp() or slave creation goes wrong.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        slave = new DumbSlave("slave1", "old description", "/old", "2", Node.Mode.NORMAL, "old keep",
+                new CommandLauncher("ssh $NAME"), new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        settings = new HashMap<String, Object>();
+    }
+
+    /**
+     * Tests {@link ChangeSet#apply(DumbSlave)}.
+     * Environment variables in the changed settings, and in the settings of the slave, should be expanded.
+     * @throws Exception if the slave could not be changed.
+     */
+    public void testApplyExpandsVariables() throws Exception {
+        settings.put("description", "Slave $NAME");
+        settings.put("remoteFS", "/jenkins/$NAME");
+        settings.put("addLabelString", "$NAME extra keep");
+        settings.put("removeLabelString", "old");
+        DumbSlave changedSlave = ChangeSet.compile(settings).apply(slave);
+
+        assertEquals("slave1", changedSlave.getNodeName());
+        assertEquals("Slave slave1", changedSlave.getNodeDescription());
+        assertEquals("/jenkins/slave1", changedSlave.getRemoteFS());
+        Set<String> labels = new HashSet<String>(Arrays.asList(LabelDictionary.split(changedSlave.getLabelString())));
+        assertEquals(new HashSet<String>(Arrays.asList("keep", "slave1", "extra")), labels);
+        assertEquals("ssh slave1", ((CommandLauncher)changedSlave.getLauncher()).getCommand());
+    }
+
+    /**
+     * Tests {@link ChangeSet#apply(DumbSlave)}.
+     * Settings that aren't changed should be taken from the slave.
+     * @throws Exception if the slave could not be changed.
+     */
+    public void testApplyKeepsUnchangedSettings() throws Exception {
+        settings.put("numExecutors", " 5");
+        ChangeSet changes = ChangeSet.compile(settings);
+        assertFalse(changes.isEmpty());
+        assertEquals("5", changes.getNumExecutors());
+
+        DumbSlave changedSlave = changes.apply(slave);
+        assertEquals(5, changedSlave.getNumExecutors());
+        assertEquals("old description", changedSlave.getNodeDescription());
+        assertEquals("/old", changedSlave.getRemoteFS());
+        assertEquals("old keep", changedSlave.getLabelString());
+        assertEquals(Node.Mode.NORMAL, changedSlave.getMode());
+    }
+
+    /**
+     * Tests {@link ChangeSet#apply(DumbSlave)}.
+     * Labels with environment variables differ between slaves, so they should not be interned when they are
+     * added or removed.
+     * @throws Exception if the slave could not be changed.
+     */
+    public void testApplyDoesNotInternExpandedLabels() throws Exception {
+        settings.put("addLabelString", "$NAME-label");
+        settings.put("removeLabelString", "$NAME-old");
+        ChangeSet changes = ChangeSet.compile(settings);
+        LabelDictionary dictionary = LabelDictionary.current();
+        DumbSlave changedSlave = changes.apply(slave);
+        int size = dictionary.size();
+
+        for (int i = 0; i < 10; i++) {
+            DumbSlave other = new DumbSlave("other" + i, "", "/other", "1", Node.Mode.NORMAL, "other" + i + "-old",
+                    new CommandLauncher("ssh"), new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+            assertEquals("other" + i + "-label", changes.apply(other).getLabelString().trim());
+        }
+        assertEquals(size, dictionary.size());
+        assertEquals(-1, dictionary.lookup("other0-label"));
+        assertEquals("old keep slave1-label", changedSlave.getLabelString().trim());
+    }
+
+    /**
+     * Tests {@link ChangeSet#isEmpty()}.
+     */
+    public void testIsEmpty() {
+        assertTrue(ChangeSet.compile(settings).isEmpty());
+        settings.put("mode", Node.Mode.EXCLUSIVE);
+        ChangeSet changes = ChangeSet.compile(settings);
+        assertFalse(changes.isEmpty());
+        assertEquals(Node.Mode.EXCLUSIVE, changes.getMode());
+        assertNull(changes.getDescription());
+    }
+
+    /**
+     * Tests {@link ChangeSet.Template#expand(String)}.
+     * Every variable should be expanded, and text without variables should be given back as it is.
+     */
+    public void testTemplate() {
+        assertEquals("a-slave1-b-slave1", ChangeSet.Template.compile("a-$NAME-b-$NAME").expand("slave1"));
+        assertEquals("slave1", ChangeSet.Template.compile("$NAME").expand("slave1"));
+        String text = "no variables";
+        assertSame(text, ChangeSet.Template.compile(text).expand("slave1"));
+        assertNull(ChangeSet.Template.compile(null));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.slaves.SlaveComputer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link ComputerStatusCache} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SlaveComputer.class)
+public class ComputerStatusCacheTest {
+
+    private SlaveComputer computer;
+
+    /**
+     * Creates a mocked online computer.
+     */
+    @Before
+    public void setUp() {
+        ComputerStatusCache.clear();
+        computer = mock(SlaveComputer.class);
+        when(computer.getIcon()).thenReturn("computer.png");
+        when(computer.getIconAltText()).thenReturn("[online]");
+    }
+
+    /**
+     * Tests {@link ComputerStatusCache#get(hudson.model.Computer)}.
+     * The computer should only be asked once.
+     */
+    @Test
+    public void testGetCached() {
+        assertEquals("computer.png", ComputerStatusCache.get(computer).getIcon());
+        ComputerStatusCache.Status status = ComputerStatusCache.get(computer);
+        assertEquals("[online]", status.getIconAltText());
+        verify(computer, times(1)).getIcon();
+        verify(computer, times(1)).getIconAltText();
+    }
+
+    /**
+     * Tests {@link ComputerStatusCache.StatusListener#onOffline(hudson.model.Computer)}.
+     * The new status should be looked up after the event.
+     */
+    @Test
+    public void testOfflineEvent() {
+        ComputerStatusCache.get(computer);
+        when(computer.getIcon()).thenReturn("computer-x.png");
+        assertEquals("computer.png", ComputerStatusCache.get(computer).getIcon());
+
+        new ComputerStatusCache.StatusListener().onOffline(computer);
+        assertEquals("computer-x.png", ComputerStatusCache.get(computer).getIcon());
+    }
+
+    /**
+     * Tests {@link ComputerStatusCache#get(hudson.model.Computer)}.
+     * Slaves without a computer are offline.
+     */
+    @Test
+    public void testGetNoComputer() {
+        assertSame(ComputerStatusCache.NO_COMPUTER, ComputerStatusCache.get(null));
+    }
+}
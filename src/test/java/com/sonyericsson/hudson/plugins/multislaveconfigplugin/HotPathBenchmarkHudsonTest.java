@@ -0,0 +1,347 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+import net.sf.json.JSONObject;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Benchmarks the hot paths of the plugin over synthetic fleets of slaves, using HudsonTestCase.
+ * Using HudsonTestCase since it's hard to create a DumbSlave by mocking only.
+ * Every path is run over every fleet size in the system property "benchmark.fleets", for the number of
+ * milliseconds in "benchmark.millis" after as long a warmup, and the throughput, the latency percentiles and the
+ * allocation rate are logged. A normal build only runs a short smoke round over 100 slaves, logged at FINE, run with
+ * "mvn test -Pbenchmark -Dtest=HotPathBenchmarkHudsonTest" to measure fleets of 100, 1k, 10k and 100k
+ * slaves.
+ * Jenkins starts the executor threads of every registered slave, so the paths that need the slaves to be
+ * registered, searching and changing settings, are only run on fleets up to "benchmark.registered".
+ */
+public class HotPathBenchmarkHudsonTest extends HudsonTestCase {
+
+    private static final Logger logger = Logger.getLogger(HotPathBenchmarkHudsonTest.class.getName());
+
+    private static final String FLEETS = System.getProperty("benchmark.fleets", "100");
+
+    /**
+     * The results are only logged at INFO when the fleets are given, by the benchmark profile.
+     */
+    private static final Level RESULT_LEVEL = System.getProperty("benchmark.fleets") != null ? Level.INFO : Level.FINE;
+    private static final long MILLIS = Long.getLong("benchmark.millis", 100);
+    private static final int REGISTERED_LIMIT = Integer.getInteger("benchmark.registered", 1000);
+    private static final int MIN_ROUNDS = 5;
+
+    /**
+     * Runs all benchmarks over all fleet sizes.
+     * @throws Exception if the fleet couldn't be created or registered.
+     */
+    public void testHotPaths() throws Exception {
+        for (String fleetSize : FLEETS.split(",")) {
+            benchmarkFleet(Integer.parseInt(fleetSize.trim()));
+        }
+    }
+
+    /**
+     * Creates a fleet where every other slave is a linux slave, with labels that are partly shared.
+     * @param size the number of slaves.
+     * @return the fleet, sorted by name.
+     * @throws IOException if a slave couldn't be created.
+     * @throws Descriptor.FormException if a slave couldn't be created.
+     */
+    private static NodeList createFleet(int size) throws IOException, Descriptor.FormException {
+        List<String> linuxNames = new ArrayList<String>();
+        List<String> windowsNames = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            String name = String.format("slave%06d", i);
+            if (i % 2 == 0) {
+                linuxNames.add(name);
+            } else {
+                windowsNames.add(name);
+            }
+        }
+        DumbSlave linux = new DumbSlave("linux", "Linux build slave $NAME", "/home/jenkins/$NAME", "1",
+                Node.Mode.NORMAL, "linux x64 build $NAME", new CommandLauncher("ssh $NAME"),
+                new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        DumbSlave windows = new DumbSlave("windows", "Windows test slave", "C:\\jenkins", "2",
+                Node.Mode.EXCLUSIVE, "windows x86 test", new CommandLauncher("ssh $NAME"),
+                new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        NodeList fleet = SlaveTemplate.compile(linux).createAll(linuxNames);
+        fleet.addAll(SlaveTemplate.compile(windows).createAll(windowsNames));
+        return fleet.sortByName();
+    }
+
+    /**
+     * Runs all benchmarks over one fleet.
+     * @param size the number of slaves.
+     * @throws Exception if the fleet couldn't be created or registered.
+     */
+    private void benchmarkFleet(final int size) throws Exception {
+        final NodeList fleet = createFleet(size);
+        final String lastName = fleet.get(size - 1).getNodeName();
+
+        measure("hasSearchHit", size, new Operation() {
+            @Override
+            int run() {
+                int hits = 0;
+                for (Node node : fleet) {
+                    DumbSlave slave = (DumbSlave)node;
+                    if (SearchSlaves.hasSearchHit(slave, "x64 build", slave.getLabelString())) {
+                        hits++;
+                    }
+                }
+                return hits;
+            }
+        });
+        final SearchQuery.FieldSearch compiledSearch = SearchQuery.FieldSearch.compile("x64 build");
+        final SlaveIndex.FieldValue[] labelValues = new SlaveIndex.FieldValue[size];
+        for (int i = 0; i < size; i++) {
+            DumbSlave slave = (DumbSlave)fleet.get(i);
+            labelValues[i] = new SlaveIndex.FieldValue(slave, slave.getLabelString());
+        }
+        measure("FieldSearch.matches", size, new Operation() {
+            @Override
+            int run() {
+                //Both sides are compiled once, so matching should allocate nothing per slave
+                int hits = 0;
+                for (SlaveIndex.FieldValue value : labelValues) {
+                    if (compiledSearch.matches(value)) {
+                        hits++;
+                    }
+                }
+                return hits;
+            }
+        });
+        measure("SearchResultWriter.write", size, new Operation() {
+            @Override
+            int run() {
+                StringWriter out = new StringWriter();
+                try {
+                    SearchResultWriter.write(out, 1, fleet, 0, size);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return out.getBuffer().length();
+            }
+        });
+        measure("getCommon", size, new Operation() {
+            @Override
+            int run() {
+                //A new list every round, since the list remembers its common settings until it's modified
+                String common = new NodeList(fleet).getCommon(Setting.LABELS);
+                return common == null ? 0 : 1;
+            }
+        });
+        measure("addLabels/removeLabels", size, new Operation() {
+            @Override
+            int run() {
+                int length = 0;
+                for (Node node : fleet) {
+                    String labels = fleet.addLabels("extra linux", node.getLabelString());
+                    length += fleet.removeLabels("extra build", labels).length();
+                }
+                return length;
+            }
+        });
+        measure("hasLabels", size, new Operation() {
+            @Override
+            int run() {
+                //The last label only exists on the last slave
+                return fleet.hasLabels("x64 " + lastName) ? 1 : 0;
+            }
+        });
+        measure("toVariables/fromVariables", size, new Operation() {
+            @Override
+            int run() {
+                int length = 0;
+                for (Node node : fleet) {
+                    DumbSlave slave = (DumbSlave)node;
+                    String variables = EnvironmentVariables.toVariables(slave, slave.getRemoteFS());
+                    length += EnvironmentVariables.fromVariables(slave, variables).length();
+                }
+                return length;
+            }
+        });
+
+        if (size > REGISTERED_LIMIT) {
+            logger.log(RESULT_LEVEL, "Benchmark " + size + " slaves: search and changeSettings skipped, more than "
+                    + REGISTERED_LIMIT + " registered slaves");
+            return;
+        }
+        hudson.setNodes(fleet);
+        try {
+            final JSONObject searchParameters = new JSONObject();
+            searchParameters.put("name", "slave0");
+            searchParameters.put("labels", "linux");
+            searchParameters.put("executors", "");
+            searchParameters.put("remoteFS", "");
+            searchParameters.put("description", "");
+            measure("getNodes", size, new Operation() {
+                @Override
+                int run() {
+                    return SearchSlaves.getNodes(searchParameters).size();
+                }
+            });
+            measure("changeSettings", size, new Operation() {
+                private NodeList nodeList = new NodeList(hudson.getNodes());
+                private final ChangeSet addLabel = compileLabelChange("addLabelString");
+                private final ChangeSet removeLabel = compileLabelChange("removeLabelString");
+                private boolean add = true;
+
+                @Override
+                int run() {
+                    ChangeSet changes;
+                    if (add) {
+                        changes = addLabel;
+                    } else {
+                        changes = removeLabel;
+                    }
+                    add = !add;
+                    nodeList = nodeList.changeSettings(changes, new ApplyReport());
+                    return nodeList.size();
+                }
+            });
+        } finally {
+            hudson.setNodes(new ArrayList<Node>());
+        }
+    }
+
+    /**
+     * Runs an operation for a warmup period and then for a measured period, and logs the throughput,
+     * the latency percentiles and the allocation rate of the measured rounds.
+     * @param name the name of the operation.
+     * @param fleetSize the number of slaves the operation works on.
+     * @param operation the operation.
+     */
+    private static void measure(String name, int fleetSize, Operation operation) {
+        int sink = 0;
+        long warmupEnd = System.nanoTime() + MILLIS * 1000000L;
+        for (int i = 0; i < MIN_ROUNDS || System.nanoTime() < warmupEnd; i++) {
+            sink += operation.run();
+        }
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported()) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                allocationBean = null;
+            }
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = 0;
+        if (allocationBean != null) {
+            allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        }
+
+        long[] samples = new long[1024];
+        int rounds = 0;
+        long start = System.nanoTime();
+        long end = start + MILLIS * 1000000L;
+        long now = start;
+        while (rounds < MIN_ROUNDS || now < end) {
+            sink += operation.run();
+            long done = System.nanoTime();
+            if (rounds == samples.length) {
+                samples = Arrays.copyOf(samples, rounds * 2);
+            }
+            samples[rounds++] = done - now;
+            now = done;
+        }
+        long elapsed = now - start;
+        long allocated = -1;
+        if (allocationBean != null) {
+            allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+
+        Arrays.sort(samples, 0, rounds);
+        double seconds = elapsed / 1e9;
+        StringBuilder line = new StringBuilder("Benchmark ").append(fleetSize).append(" slaves, ").append(name)
+                .append(": ").append(String.format("%.1f ops/s", rounds / seconds))
+                .append(String.format(", p50 %.3f ms", percentile(samples, rounds, 50) / 1e6))
+                .append(String.format(", p90 %.3f ms", percentile(samples, rounds, 90) / 1e6))
+                .append(String.format(", p99 %.3f ms", percentile(samples, rounds, 99) / 1e6))
+                .append(String.format(", max %.3f ms", samples[rounds - 1] / 1e6));
+        if (allocated >= 0) {
+            line.append(String.format(", %.1f MB/s, %d bytes/op", allocated / seconds / (1024 * 1024),
+                    allocated / rounds));
+        }
+        line.append(" (").append(sink).append(")");
+        logger.log(RESULT_LEVEL, line.toString());
+        assertTrue(rounds >= MIN_ROUNDS);
+    }
+
+    /**
+     * Gets a percentile of sorted samples.
+     * @param samples the sorted samples.
+     * @param count the number of samples.
+     * @param percent the percentile.
+     * @return the sample at the percentile.
+     */
+    private static long percentile(long[] samples, int count, int percent) {
+        int index = (int)Math.ceil(count * percent / 100.0) - 1;
+        return samples[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    /**
+     * Compiles a change that adds or removes the benchmark label, once, outside the measured operation.
+     * @param key the setting to change, addLabelString or removeLabelString.
+     * @return the change.
+     */
+    private static ChangeSet compileLabelChange(String key) {
+        HashMap<String, Object> settings = new HashMap<String, Object>();
+        settings.put(key, "benchmark");
+        return ChangeSet.compile(settings);
+    }
+
+    /**
+     * An operation to benchmark.
+     */
+    private abstract static class Operation {
+
+        /**
+         * Runs the operation once.
+         * @return something derived from the result, so that the work can't be optimized away.
+         */
+        abstract int run();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link LabelSet} and {@link LabelDictionary} using JUnit Tests.
+ */
+public class LabelSetTest {
+
+    /**
+     * Tests {@link LabelDictionary#split(String)}.
+     * Any whitespace should separate labels, and empty labels should be left out.
+     */
+    @Test
+    public void testSplit() {
+        assertArrayEquals(new String[]{"LINUX", "x64", "build"}, LabelDictionary.split("  LINUX\tx64\n build "));
+        assertEquals(0, LabelDictionary.split("   ").length);
+        assertEquals(0, LabelDictionary.split(null).length);
+    }
+
+    /**
+     * Tests {@link LabelDictionary#intern(String)}.
+     * The same label should always get the same id, and the dictionary should hand back one shared string.
+     */
+    @Test
+    public void testIntern() {
+        LabelDictionary dictionary = new LabelDictionary();
+        int id = dictionary.intern("interned-label");
+        assertEquals(id, dictionary.intern(new String("interned-label")));
+        assertEquals(id, dictionary.lookup("interned-label"));
+        assertEquals("interned-label", dictionary.getLabel(id));
+        assertEquals(-1, dictionary.lookup("never-seen-label"));
+        assertEquals(1, dictionary.size());
+    }
+
+    /**
+     * Tests {@link LabelDictionary#renew()}.
+     * Sets from the replaced dictionary should keep working, while the new one starts out empty.
+     */
+    @Test
+    public void testRenew() {
+        LabelDictionary old = LabelDictionary.current();
+        LabelSet set = LabelSet.parse(old, "renewed1 renewed2");
+        LabelDictionary renewed = LabelDictionary.renew();
+
+        assertSame(renewed, LabelDictionary.current());
+        assertEquals(-1, renewed.lookup("renewed1"));
+        assertTrue(set.contains("renewed2"));
+        assertTrue(set.isFrom(old));
+        assertFalse(set.isFrom(renewed));
+        assertTrue(LabelSet.EMPTY.isFrom(renewed));
+    }
+
+    /**
+     * Tests {@link LabelDictionary#isWasteful(int)}.
+     * Only a large dictionary that is mostly unused should be replaced.
+     */
+    @Test
+    public void testIsWasteful() {
+        LabelDictionary dictionary = new LabelDictionary();
+        for (int i = 0; i < LabelDictionary.MIN_RENEW_SIZE - 1; i++) {
+            dictionary.intern("wasteful" + i);
+        }
+        assertFalse(dictionary.isWasteful(0));
+        dictionary.intern("wasteful-last");
+        assertTrue(dictionary.isWasteful(0));
+        assertTrue(dictionary.isWasteful(LabelDictionary.MIN_RENEW_SIZE / 2 - 1));
+        assertFalse(dictionary.isWasteful(LabelDictionary.MIN_RENEW_SIZE / 2));
+    }
+
+    /**
+     * Tests {@link LabelSet#contains(String)} and {@link LabelSet#containsAll(LabelSet)}.
+     * Sets spanning more than one word should be compared word by word.
+     */
+    @Test
+    public void testContains() {
+        StringBuilder manyLabels = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            manyLabels.append("many").append(i).append(" ");
+        }
+        LabelDictionary dictionary = new LabelDictionary();
+        LabelSet many = LabelSet.parse(dictionary, manyLabels.toString());
+        LabelSet few = LabelSet.parse(dictionary, "many3 many199");
+
+        assertTrue(many.contains("many150"));
+        assertFalse(few.contains("many150"));
+        assertFalse(few.contains("never-seen-label"));
+        assertTrue(many.containsAll(few));
+        assertFalse(few.containsAll(many));
+        assertTrue(few.containsAll(LabelSet.EMPTY));
+    }
+
+    /**
+     * Tests {@link LabelSet.Union}.
+     * Labels should only be added once.
+     */
+    @Test
+    public void testUnion() {
+        LabelDictionary dictionary = new LabelDictionary();
+        LabelSet.Union union = new LabelSet.Union(dictionary).add(LabelSet.parse(dictionary, "union1 union2"));
+        assertFalse(union.add(dictionary.intern("union2")));
+        assertTrue(union.add(dictionary.intern("union3")));
+        LabelSet result = union.toLabelSet();
+        assertTrue(result.containsAll(LabelSet.parse(dictionary, "union1 union2 union3")));
+        assertTrue(result.contains("union3"));
+    }
+}
@@ -261,6 +261,184 @@ public class NodeListHudsonTest extends HudsonTestCase {
         assertEquals(retentionStrategy, ((Slave)registeredNodes.get(1)).getRetentionStrategy());
     }
 
+    /**
+     * Tests {@link NodeList#changeSettings(java.util.HashMap, ApplyReport)}.
+     * Makes sure only the changed slaves are reported and that the untouched slave is kept as the same instance.
+     * @throws IOException if adding a node goes wrong.
+     */
+    public void testChangeSettingsReport() throws IOException {
+        hudson.addNode(dumbSlave2);
+        nodeList.add(dumbSlave1);
+        settings.put("description", "batched");
+
+        ApplyReport report = new ApplyReport();
+        nodeList.changeSettings(settings, report);
+
+        assertEquals(1, report.getChangedCount());
+        assertTrue(report.getNodeMillis().containsKey("dumbSlave1"));
+        assertSame(dumbSlave2, hudson.getNode("dumbSlave2"));
+        assertEquals("batched", hudson.getNode("dumbSlave1").getNodeDescription());
+    }
+
+    /**
+     * Tests {@link NodeList#changeSettings(java.util.HashMap, ApplyReport)}.
+     * Makes sure registered slaves that the settings would leave as they are are kept as the same instances,
+     * and only counted as skipped.
+     * @throws Descriptor.FormException if Slave creation goes wrong.
+     * @throws IOException if adding a node goes wrong.
+     */
+    public void testChangeSettingsSkipsUnchanged() throws Descriptor.FormException, IOException {
+        DumbSlave labelled = new DumbSlave("labelled", "description", "/remote", "1", Node.Mode.NORMAL, "a b",
+                new JNLPLauncher(), new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        hudson.addNode(labelled);
+        nodeList.add(labelled);
+        settings.put("addLabelString", "a");
+        settings.put("description", "description");
+        settings.put("launcher", new JNLPLauncher());
+
+        ApplyReport report = new ApplyReport();
+        NodeList changedList = nodeList.changeSettings(settings, report);
+
+        assertEquals(0, report.getChangedCount());
+        assertEquals(1, report.getSkippedCount());
+        assertSame(labelled, changedList.get(0));
+        assertSame(labelled, hudson.getNode("labelled"));
+
+        settings.put("addLabelString", "c");
+        report = new ApplyReport();
+        changedList = nodeList.changeSettings(settings, report);
+
+        assertEquals(1, report.getChangedCount());
+        assertEquals(0, report.getSkippedCount());
+        assertNotSame(labelled, hudson.getNode("labelled"));
+        assertEquals("a b c", changedList.get(0).getLabelString());
+    }
+
+    /**
+     * Tests {@link NodeList#changeSettings(java.util.HashMap, ApplyReport)}.
+     * A selected slave that has since been reconfigured so that the settings no longer change it should be skipped,
+     * since the fingerprint is compared against the registered slave, not the selected one.
+     * @throws Descriptor.FormException if Slave creation goes wrong.
+     * @throws IOException if adding a node goes wrong.
+     */
+    public void testChangeSettingsSkipsReconfigured() throws Descriptor.FormException, IOException {
+        DumbSlave selected = new DumbSlave("labelled", "description", "/remote", "1", Node.Mode.NORMAL, "a",
+                new JNLPLauncher(), new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        hudson.addNode(selected);
+        nodeList.add(selected);
+        DumbSlave reconfigured = new DumbSlave("labelled", "description", "/remote", "1", Node.Mode.NORMAL, "a b",
+                new JNLPLauncher(), new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        hudson.addNode(reconfigured);
+        settings.put("addLabelString", "b");
+        settings.put("description", "description");
+        settings.put("launcher", new JNLPLauncher());
+
+        ApplyReport report = new ApplyReport();
+        NodeList changedList = nodeList.changeSettings(settings, report);
+
+        assertEquals(0, report.getChangedCount());
+        assertEquals(1, report.getSkippedCount());
+        assertSame(reconfigured, changedList.get(0));
+        assertSame(reconfigured, hudson.getNode("labelled"));
+        assertEquals(1, hudson.getNodes().size());
+    }
+
+    /**
+     * Tests {@link NodeList#changeSettings(java.util.HashMap)}.
+     * Makes sure a changed slave takes the place of the slave it replaces in the Jenkins node list.
+     * @throws Descriptor.FormException if Slave creation goes wrong.
+     * @throws IOException if adding a node goes wrong.
+     */
+    public void testChangeSettingsKeepsPosition() throws Descriptor.FormException, IOException {
+        DumbSlave dumbSlave3 = new DumbSlave("dumbSlave3", null, null, null, null, null, null, null,
+                Collections.EMPTY_LIST);
+        hudson.addNode(dumbSlave1);
+        hudson.addNode(dumbSlave2);
+        hudson.addNode(dumbSlave3);
+        nodeList.add(dumbSlave2);
+        settings.put("description", "moved?");
+
+        NodeList changedList = nodeList.changeSettings(settings);
+
+        List<Node> registeredNodes = hudson.getNodes();
+        assertEquals(3, registeredNodes.size());
+        assertSame(dumbSlave1, registeredNodes.get(0));
+        assertSame(changedList.get(0), registeredNodes.get(1));
+        assertEquals("moved?", registeredNodes.get(1).getNodeDescription());
+        assertSame(dumbSlave3, registeredNodes.get(2));
+    }
+
+    /**
+     * Tests {@link NodeList#changeSettings(java.util.HashMap, ApplyReport)}.
+     * A slave that has been reconfigured since it was selected should be changed in place of the registered slave,
+     * keeping the reconfiguration, without a second node with the same name.
+     * @throws Exception if adding or replacing a node goes wrong.
+     */
+    public void testChangeSettingsReconfigured() throws Exception {
+        hudson.addNode(dumbSlave1);
+        hudson.addNode(dumbSlave2);
+        nodeList.add(dumbSlave1);
+        DumbSlave reconfigured = new DumbSlave("dumbSlave1", null, "/reconfigured", null, null, null, null, null,
+                Collections.EMPTY_LIST);
+        hudson.addNode(reconfigured);
+        assertNotSame(dumbSlave1, hudson.getNode("dumbSlave1"));
+        settings.put("description", "changed");
+
+        ApplyReport report = new ApplyReport();
+        NodeList changedList = nodeList.changeSettings(settings, report);
+
+        List<Node> registeredNodes = hudson.getNodes();
+        assertEquals(2, registeredNodes.size());
+        assertSame(changedList.get(0), registeredNodes.get(0));
+        assertEquals("changed", registeredNodes.get(0).getNodeDescription());
+        assertEquals("/reconfigured", ((DumbSlave)registeredNodes.get(0)).getRemoteFS());
+        assertSame(dumbSlave2, registeredNodes.get(1));
+        assertEquals(1, report.getDoneCount());
+    }
+
+    /**
+     * Tests {@link NodeList#deleteAll(StringBuffer)}.
+     * Makes sure only the slaves in the list are deleted and that nothing is reported as failed.
+     * @throws IOException if adding a node goes wrong.
+     */
+    public void testDeleteAll() throws IOException {
+        hudson.addNode(dumbSlave1);
+        hudson.addNode(dumbSlave2);
+        nodeList.add(dumbSlave1);
+
+        StringBuffer failedSlavesBuffer = new StringBuffer();
+        NodeList failedSlavesList = nodeList.deleteAll(failedSlavesBuffer);
+
+        assertTrue(failedSlavesList.isEmpty());
+        assertEquals(0, failedSlavesBuffer.length());
+        assertEquals(1, hudson.getNodes().size());
+        assertSame(dumbSlave2, hudson.getNodes().get(0));
+    }
+
+    /**
+     * Tests {@link NodeList#deleteAll(StringBuffer, ApplyReport)}.
+     * A slave that has been reconfigured since it was selected should still be deleted, and reported as done.
+     * @throws Exception if adding or replacing a node goes wrong.
+     */
+    public void testDeleteAllReconfigured() throws Exception {
+        hudson.addNode(dumbSlave1);
+        hudson.addNode(dumbSlave2);
+        nodeList.add(dumbSlave1);
+        DumbSlave reconfigured = new DumbSlave("dumbSlave1", "reconfigured", null, null, null, null, null, null,
+                Collections.EMPTY_LIST);
+        hudson.addNode(reconfigured);
+        assertNotSame(dumbSlave1, hudson.getNode("dumbSlave1"));
+
+        ApplyReport report = new ApplyReport();
+        NodeList failedSlavesList = nodeList.deleteAll(new StringBuffer(), report);
+
+        assertTrue(failedSlavesList.isEmpty());
+        assertNull(hudson.getNode("dumbSlave1"));
+        assertEquals(1, hudson.getNodes().size());
+        assertEquals(1, report.getDoneCount());
+        assertEquals(0, report.getFailedCount());
+    }
+
     /**
      * Tests {@link com.sonyericsson.hudson.plugins.multislaveconfigplugin.NodeList#getComplementaryNodes()}.
      * Makes sure the tested method returns the correct slave
@@ -216,6 +216,61 @@ public class NodeListTest {
         }
     }
 
+    /**
+     * Tests {@link NodeList#sortBy(NodeList.SortColumn, boolean)}.
+     * Sorts by the number of executors both ways, slaves with the same number should be sorted by name.
+     */
+    @Test
+    public void testSortByExecutors() {
+        when(dumbSlave1.getNumExecutors()).thenReturn(3);
+        when(dumbSlave2.getNumExecutors()).thenReturn(1);
+        when(dumbSlave3.getNumExecutors()).thenReturn(1);
+        nodeList.add(dumbSlave1);
+        nodeList.add(dumbSlave3);
+        nodeList.add(dumbSlave2);
+
+        nodeList.sortBy(NodeList.SortColumn.EXECUTORS, false);
+        assertEquals(dumbSlave2, nodeList.get(0));
+        assertEquals(dumbSlave3, nodeList.get(1));
+        assertEquals(dumbSlave1, nodeList.get(2));
+
+        nodeList.sortBy(NodeList.SortColumn.EXECUTORS, true);
+        assertEquals(dumbSlave1, nodeList.get(0));
+        assertEquals(dumbSlave3, nodeList.get(1));
+        assertEquals(dumbSlave2, nodeList.get(2));
+    }
+
+    /**
+     * Tests {@link NodeList#sortBy(NodeList.SortColumn, boolean)}.
+     * Text columns should be compared case insensitive, with a missing value first.
+     */
+    @Test
+    public void testSortByDescription() {
+        when(dumbSlave1.getNodeDescription()).thenReturn("b");
+        when(dumbSlave2.getNodeDescription()).thenReturn("A");
+        when(dumbSlave3.getNodeDescription()).thenReturn(null);
+        nodeList.add(dumbSlave1);
+        nodeList.add(dumbSlave2);
+        nodeList.add(dumbSlave3);
+
+        nodeList.sortBy(NodeList.SortColumn.DESCRIPTION, false);
+        assertEquals(dumbSlave3, nodeList.get(0));
+        assertEquals(dumbSlave2, nodeList.get(1));
+        assertEquals(dumbSlave1, nodeList.get(2));
+    }
+
+    /**
+     * Tests {@link NodeList.SortColumn#fromParameter(String)}.
+     * Unknown or missing columns should sort by name.
+     */
+    @Test
+    public void testSortColumnFromParameter() {
+        assertEquals(NodeList.SortColumn.REMOTE_FS, NodeList.SortColumn.fromParameter("remoteFS"));
+        assertEquals(NodeList.SortColumn.STATUS, NodeList.SortColumn.fromParameter("status"));
+        assertEquals(NodeList.SortColumn.NAME, NodeList.SortColumn.fromParameter("unknown"));
+        assertEquals(NodeList.SortColumn.NAME, NodeList.SortColumn.fromParameter(null));
+    }
+
     /**
      * Tests {@link com.sonyericsson.hudson.plugins.multislaveconfigplugin.NodeList#toString()}.
      * Tries to do a String representation of a list containing two slaves.
@@ -547,6 +602,29 @@ public class NodeListTest {
         assertEquals("Description about dumbSlave1.", nodeList.getCommon(DESCRIPTION));
     }
 
+    /**
+     * Tests {@link NodeList#getCommon(Setting)}.
+     * All settings should be aggregated in one pass over the slaves,
+     * and aggregated again only after the list has been modified.
+     */
+    @Test
+    public void testGetCommonAggregatedOnce() {
+        when(dumbSlave1.getLabelString()).thenReturn("LABEL");
+        when(dumbSlave2.getLabelString()).thenReturn("LABEL");
+        when(dumbSlave3.getLabelString()).thenReturn("OTHER");
+        nodeList.add(dumbSlave1);
+        nodeList.add(dumbSlave2);
+
+        assertEquals("LABEL", nodeList.getCommon(LABELS));
+        assertNull(nodeList.getCommon(DESCRIPTION));
+        assertEquals("LABEL", nodeList.getCommon(LABELS));
+        Mockito.verify(dumbSlave1, Mockito.times(1)).getLabelString();
+
+        nodeList.add(dumbSlave3);
+        assertNull(nodeList.getCommon(LABELS));
+        Mockito.verify(dumbSlave1, Mockito.times(2)).getLabelString();
+    }
+
     /**
      * Tests {@link com.sonyericsson.hudson.plugins.multislaveconfigplugin.NodeList#getMode()}.
      * The list contains two DumbSlaves with the same Mode and a couple of other
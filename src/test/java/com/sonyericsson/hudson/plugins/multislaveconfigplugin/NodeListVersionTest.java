@@ -0,0 +1,79 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Saveable;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link NodeListVersion} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Hudson.class)
+public class NodeListVersionTest {
+
+    /**
+     * Tests {@link NodeListVersion#changed()}.
+     * The version should grow with every change.
+     */
+    @Test
+    public void testChanged() {
+        long version = NodeListVersion.get();
+        assertEquals(version + 1, NodeListVersion.changed());
+        assertEquals(version + 1, NodeListVersion.get());
+    }
+
+    /**
+     * Tests {@link NodeListVersion.ConfigurationChangeListener}.
+     */
+    @Test
+    public void testConfigurationChange() {
+        long version = NodeListVersion.get();
+        new NodeListVersion.ConfigurationChangeListener().onConfigurationChange();
+        assertEquals(version + 1, NodeListVersion.get());
+    }
+
+    /**
+     * Tests {@link NodeListVersion.SaveListener}.
+     * Only saving Jenkins or a node should change the version.
+     */
+    @Test
+    public void testSave() {
+        long version = NodeListVersion.get();
+        NodeListVersion.SaveListener listener = new NodeListVersion.SaveListener();
+        listener.onChange(mock(Saveable.class), mock(XmlFile.class));
+        assertEquals(version, NodeListVersion.get());
+        listener.onChange(mock(Hudson.class), mock(XmlFile.class));
+        assertEquals(version + 1, NodeListVersion.get());
+    }
+}
@@ -162,7 +162,7 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testIsConfigureMode() {
-        nodeManageLink.userMode.put("currentUserId", CONFIGURE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(CONFIGURE);
         assertTrue(nodeManageLink.isConfigureMode());
     }
 
@@ -172,7 +172,7 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testIsConfigureModeFalse() {
-        nodeManageLink.userMode.put("currentUserId", DELETE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(DELETE);
         assertFalse(nodeManageLink.isConfigureMode());
     }
 
@@ -182,7 +182,7 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testIsDeleteMode() {
-        nodeManageLink.userMode.put("currentUserId", DELETE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(DELETE);
         assertTrue(nodeManageLink.isDeleteMode());
     }
 
@@ -192,10 +192,28 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testIsDeleteModeFalse() {
-        nodeManageLink.userMode.put("currentUserId", CONFIGURE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(CONFIGURE);
         assertFalse(nodeManageLink.isDeleteMode());
     }
 
+    /**
+     * Tests {@link NodeManageLink#getSessionState(String)}.
+     * Session ids that aren't the session of a request should only be looked up, never get state of their own.
+     */
+    @Test
+    public void testGetSessionStateLookupOnly() {
+        assertNull(nodeManageLink.getSessionState("madeUpId"));
+        assertEquals(0, nodeManageLink.getSessions().size());
+        assertTrue(nodeManageLink.hadLabels("madeUpId"));
+        assertEquals(0, nodeManageLink.getSessions().size());
+
+        SessionState state = nodeManageLink.getSessionState(staplerRequestMock);
+        assertSame(state, nodeManageLink.getSessionState("currentUserId"));
+        assertTrue(nodeManageLink.hadLabels("currentUserId"));
+        state.setHadLabels(false);
+        assertFalse(nodeManageLink.hadLabels("currentUserId"));
+    }
+
     /**
      * Tests {@link NodeManageLink#generateStars(int)}.
      * Checks that the right amount of stars is generated, and that it only is stars.
@@ -213,8 +231,8 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testPutUserModeConfigure() {
-        nodeManageLink.userMode.put("currentUserId", CONFIGURE);
-        assertEquals(nodeManageLink.userMode.get("currentUserId"), CONFIGURE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(CONFIGURE);
+        assertEquals(nodeManageLink.getSessionState(staplerRequestMock).getUserMode(), CONFIGURE);
     }
 
     /**
@@ -223,8 +241,8 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testPutUserModeDelete() {
-        nodeManageLink.userMode.put("currentUserId", DELETE);
-        assertEquals(nodeManageLink.userMode.get("currentUserId"), DELETE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(DELETE);
+        assertEquals(nodeManageLink.getSessionState(staplerRequestMock).getUserMode(), DELETE);
     }
 
     /**
@@ -233,19 +251,19 @@ public class NodeManageLinkTest {
      */
     @Test
     public void testPutUserModeAdd() {
-        nodeManageLink.userMode.put("currentUserId", ADD);
-        assertEquals(nodeManageLink.userMode.get("currentUserId"), ADD);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(ADD);
+        assertEquals(nodeManageLink.getSessionState(staplerRequestMock).getUserMode(), ADD);
     }
 
     /**
-     * Tests {@link NodeManageLink#doSearch(String, net.sf.json.JSONObject)}.
+     * Tests {@link NodeManageLink#doSearch(net.sf.json.JSONObject)}.
      * Checks that a hudson Failure is being thrown when redirecting without having any slaves in the system and
      * usermode is configure.
      * @throws IOException if so.
      */
     @Test (expected = Failure.class)
     public void testDoSearchRedirectTestEmptyList() throws IOException {
-        nodeManageLink.userMode.put("currentUserId", CONFIGURE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(CONFIGURE);
         when(hudsonMock.getNodes()).thenReturn(Collections.<Node>emptyList());
         nodeManageLink.doConfigureRedirect(staplerRequestMock, staplerResponse);
     }
@@ -259,7 +277,7 @@ public class NodeManageLinkTest {
      */
     @Test (expected = Failure.class)
     public void testDoDeleteRedirectEmptyList() throws IOException {
-        nodeManageLink.userMode.put("currentUserId", DELETE);
+        nodeManageLink.getSessionState(staplerRequestMock).setUserMode(DELETE);
         when(hudsonMock.getNodes()).thenReturn(Collections.<Node>emptyList());
         nodeManageLink.doDeleteRedirect(staplerRequestMock, staplerResponse);
     }
@@ -401,5 +419,78 @@ public class NodeManageLinkTest {
         when(jsonObjectMock.get("selectedSlaves")).thenReturn(null);
         nodeManageLink.doSelectSlaves(staplerRequestMock, staplerResponse);
     }
-}
 
+    /**
+     * Tests {@link NodeManageLink#selectFromResult(NodeList, boolean, String)}.
+     * The selection is either all slaves in the result except the exceptions, or only the exceptions.
+     */
+    @Test
+    public void testSelectFromResult() {
+        DumbSlave otherSlaveMock = PowerMockito.mock(DumbSlave.class);
+        when(otherSlaveMock.getNodeName()).thenReturn("OtherSlave");
+        NodeList result = new NodeList();
+        result.add(dumbSlaveMock);
+        result.add(otherSlaveMock);
+
+        NodeList selected = NodeManageLink.selectFromResult(result, true, "[\"TestSlave\"]");
+        assertEquals(1, selected.size());
+        assertSame(otherSlaveMock, selected.get(0));
+
+        selected = NodeManageLink.selectFromResult(result, false, "[\"TestSlave\"]");
+        assertEquals(1, selected.size());
+        assertSame(dumbSlaveMock, selected.get(0));
+
+        assertEquals(2, NodeManageLink.selectFromResult(result, true, "[]").size());
+    }
+
+    /**
+     * Tests {@link NodeManageLink#toSearchResponse(SearchSequencer.Result, long, long, NodeList)}.
+     * Only the changed names should be returned when the page lists the previous result, and a replaced node
+     * should be both removed and added.
+     */
+    @Test
+    public void testToSearchResponse() {
+        DumbSlave otherSlaveMock = PowerMockito.mock(DumbSlave.class);
+        when(otherSlaveMock.getNodeName()).thenReturn("OtherSlave");
+        DumbSlave replacedSlaveMock = PowerMockito.mock(DumbSlave.class);
+        when(replacedSlaveMock.getNodeName()).thenReturn("TestSlave");
+        NodeList previousList = new NodeList();
+        previousList.add(otherSlaveMock);
+        previousList.add(dumbSlaveMock);
+        SearchSequencer.Result previous = new SearchSequencer.Result(3, previousList);
+        NodeList current = new NodeList();
+        current.add(replacedSlaveMock);
+
+        JSONObject response = NodeManageLink.toSearchResponse(previous, 3, 4, current);
+        assertEquals(4, response.getLong("sequence"));
+        assertEquals(1, response.getInt("total"));
+        assertFalse(response.has("names"));
+        assertEquals("[\"TestSlave\"]", response.getJSONArray("added").toString());
+        assertEquals("[\"OtherSlave\",\"TestSlave\"]", response.getJSONArray("removed").toString());
+
+        response = NodeManageLink.toSearchResponse(previous, 2, 4, current);
+        assertFalse(response.has("added"));
+        assertEquals("[\"TestSlave\"]", response.getJSONArray("names").toString());
+        assertTrue(NodeManageLink.toSearchResponse(null, 0, 1, current).has("names"));
+    }
+
+    /**
+     * Tests {@link NodeManageLink#toRollout(JSONObject)}.
+     * A rollout should only be made when waves were asked for, with the defaults for empty numbers.
+     */
+    @Test
+    public void testToRollout() {
+        assertNull(NodeManageLink.toRollout(null));
+        JSONObject rolling = new JSONObject();
+        rolling.put("waveSize", "0");
+        assertNull(NodeManageLink.toRollout(rolling));
+
+        rolling.put("waveSize", "5");
+        rolling.put("maxFailures", "2");
+        rolling.put("timeoutSeconds", "");
+        RollingApply rollout = NodeManageLink.toRollout(rolling);
+        assertEquals(5, rollout.getWaveSize());
+        assertEquals(2, rollout.getMaxFailures());
+        assertEquals(RollingApply.DEFAULT_TIMEOUT_SECONDS, rollout.getTimeoutSeconds());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Failure;
+import hudson.model.TaskListener;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.ComputerLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.RetentionStrategy;
+import hudson.slaves.SlaveComputer;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.util.HashMap;
+
+/**
+ * Tests {@link RollingApply} using HudsonTestCases.
+ */
+public class RollingApplyHudsonTest extends HudsonTestCase {
+
+    /**
+     * The time a slave launched with a failing launcher is waited for, it only fails when its time has run out.
+     */
+    private static final int HALT_TIMEOUT_SECONDS = 5;
+
+    private NodeList nodeList;
+    private HashMap<String, Object> settings;
+
+    /**
+     * Sets up the tests with three online slaves.
+     * @throws Exception if the slaves could not be started.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        nodeList = new NodeList();
+        for (int i = 0; i < 3; i++) {
+            nodeList.add(createOnlineSlave());
+        }
+        settings = new HashMap<String, Object>();
+    }
+
+    /**
+     * Tests {@link RollingApply#apply(NodeList, ChangeSet, ApplyReport)}.
+     * All waves should be changed when the slaves stay online.
+     */
+    public void testApplyInWaves() {
+        settings.put("retentionStrategy", new RetentionStrategy.Always());
+        ApplyReport report = new ApplyReport();
+        NodeList changedList = new RollingApply(2, 0, 60).apply(nodeList, ChangeSet.compile(settings), report);
+
+        assertEquals(3, changedList.size());
+        assertEquals(3, report.getDoneCount());
+        assertEquals(0, report.getFailedCount());
+        for (int i = 0; i < changedList.size(); i++) {
+            assertSame(changedList.get(i), hudson.getNode(nodeList.get(i).getNodeName()));
+            assertTrue(changedList.get(i).toComputer().isOnline());
+        }
+    }
+
+    /**
+     * Tests {@link RollingApply#apply(NodeList, ChangeSet, ApplyReport)}.
+     * The rollout should halt after the first wave when its slave doesn't come back online,
+     * leaving the other slaves unchanged.
+     */
+    public void testHaltOnFailure() {
+        settings.put("launcher", new CommandLauncher("false"));
+        ApplyReport report = new ApplyReport();
+        try {
+            new RollingApply(1, 0, HALT_TIMEOUT_SECONDS).apply(nodeList, ChangeSet.compile(settings), report);
+            fail("The rollout should have been halted");
+        } catch (Failure e) {
+            assertTrue(e.getMessage().contains(nodeList.get(0).getNodeName()));
+        }
+        assertEquals(1, report.getFailedCount());
+        DumbSlave first = (DumbSlave)hudson.getNode(nodeList.get(0).getNodeName());
+        assertEquals("false", ((CommandLauncher)first.getLauncher()).getCommand());
+        for (int i = 1; i < nodeList.size(); i++) {
+            assertSame(nodeList.get(i), hudson.getNode(nodeList.get(i).getNodeName()));
+        }
+    }
+
+    /**
+     * Tests {@link RollingApply#apply(NodeList, ChangeSet, ApplyReport, SessionState)}.
+     * A halted rollout should leave the session with the slaves registered after the changed wave,
+     * and with the report of what was done.
+     */
+    public void testHaltUpdatesSession() {
+        settings.put("launcher", new CommandLauncher("false"));
+        ApplyReport report = new ApplyReport();
+        SessionState state = new SessionState();
+        state.setNodeList(nodeList);
+        try {
+            new RollingApply(1, 0, HALT_TIMEOUT_SECONDS).apply(nodeList, ChangeSet.compile(settings), report, state);
+            fail("The rollout should have been halted");
+        } catch (Failure e) {
+            assertSame(report, state.getLastApplyReport());
+        }
+        NodeList sessionList = state.getNodeList();
+        assertEquals(nodeList.size(), sessionList.size());
+        assertNotSame(nodeList.get(0), sessionList.get(0));
+        for (int i = 0; i < sessionList.size(); i++) {
+            assertSame(hudson.getNode(nodeList.get(i).getNodeName()), sessionList.get(i));
+        }
+        assertTrue(sessionList.slavesStillExist());
+    }
+
+    /**
+     * Tests {@link RollingApply#apply(NodeList, ChangeSet, ApplyReport)}.
+     * Slaves that come back online a while after their launcher has finished, like JNLP slaves connecting back,
+     * should not be counted as failed, so the rollout goes on with the next wave.
+     * @throws Exception if the launcher of the test slaves could not be created.
+     */
+    public void testComesBackAfterLauncherFinished() throws Exception {
+        settings.put("launcher", new LateLauncher(createComputerLauncher(null)));
+        ApplyReport report = new ApplyReport();
+        NodeList changedList = new RollingApply(1, 0, 60).apply(nodeList, ChangeSet.compile(settings), report);
+
+        assertEquals(3, changedList.size());
+        assertEquals(0, report.getFailedCount());
+        for (int i = 0; i < changedList.size(); i++) {
+            assertTrue(((DumbSlave)changedList.get(i)).getLauncher() instanceof LateLauncher);
+            assertTrue(changedList.get(i).toComputer().isOnline());
+        }
+    }
+
+    /**
+     * A launcher that returns at once, and only connects the slave a while later, the way a JNLP slave connects
+     * back on its own.
+     */
+    public static final class LateLauncher extends ComputerLauncher {
+
+        private static final long DELAY_MILLIS = 500;
+
+        private final ComputerLauncher delegate;
+
+        /**
+         * Standard constructor.
+         * @param delegate the launcher that connects the slave.
+         */
+        public LateLauncher(ComputerLauncher delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Connects the slave in the background, after a delay.
+         * @param computer the computer of the slave.
+         * @param listener where to log the launch.
+         */
+        @Override
+        public void launch(final SlaveComputer computer, final TaskListener listener) {
+            new Thread("Late launch of " + computer.getName()) {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(DELAY_MILLIS);
+                        delegate.launch(computer, listener);
+                    } catch (Exception e) {
+                        e.printStackTrace(listener.error("Late launch failed"));
+                    }
+                }
+            }.start();
+        }
+    }
+
+    /**
+     * Tests {@link RollingApply#isRollable(ChangeSet)}.
+     */
+    public void testIsRollable() {
+        settings.put("description", "description");
+        assertFalse(RollingApply.isRollable(ChangeSet.compile(settings)));
+        settings.put("retentionStrategy", new RetentionStrategy.Always());
+        assertTrue(RollingApply.isRollable(ChangeSet.compile(settings)));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import net.sf.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.LABELS;
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.NAME;
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.REMOTE_FS;
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SearchQuery} using JUnit Tests.
+ */
+public class SearchQueryTest {
+
+    private JSONObject searchParameters;
+
+    /**
+     * Creates an empty search form.
+     */
+    @Before
+    public void setUp() {
+        searchParameters = new JSONObject();
+        searchParameters.put("labels", "");
+        searchParameters.put("remoteFS", "");
+        searchParameters.put("description", "");
+        searchParameters.put("executors", "");
+        searchParameters.put("name", "");
+    }
+
+    /**
+     * Tests {@link SearchQuery#compile(net.sf.json.JSONObject)}.
+     * The search strings should be lower cased, trimmed and split once.
+     */
+    @Test
+    public void testCompile() {
+        searchParameters.put("labels", " LINUX  Build ");
+        searchParameters.put("executors", "3");
+        SearchQuery query = SearchQuery.compile(searchParameters);
+        assertTrue(query.hasExecutors());
+        assertEquals(3, query.getExecutors());
+        SearchQuery.FieldSearch labels = query.getSearch(LABELS);
+        assertEquals(2, labels.size());
+        assertEquals("linux", labels.getToken(0));
+        assertEquals("build", labels.getToken(1));
+        assertTrue(query.getSearch(NAME).isEmpty());
+        assertFalse(query.hasVariables());
+    }
+
+    /**
+     * Tests {@link SearchQuery#compile(net.sf.json.JSONObject)}.
+     * Only tokens with environment variables should be flagged as such.
+     */
+    @Test
+    public void testCompileVariables() {
+        searchParameters.put("remoteFS", "/jenkins/$NAME root");
+        SearchQuery query = SearchQuery.compile(searchParameters);
+        SearchQuery.FieldSearch remoteFS = query.getSearch(REMOTE_FS);
+        assertTrue(remoteFS.isVariable(0));
+        assertFalse(remoteFS.isVariable(1));
+        assertTrue(query.hasVariables());
+        assertFalse(query.hasExecutors());
+    }
+
+    /**
+     * Tests {@link SearchQuery.FieldSearch#matches(SlaveIndex.FieldValue)}.
+     * Without environment variables in the search, every search token should have to be contained in some token of
+     * the slave, the same as when the lower cased strings were split and compared with {@link String#contains}.
+     * Environment variables should never be interpreted, which would fail without a slave.
+     */
+    @Test
+    public void testMatchesLikeContains() {
+        String[] searches = {"", "linux", "LINUX build", "x64", "build linux64", "win nux", "node  64 ", "missing"};
+        String[] values = {"WINDOWS LINUX64 buildnode", "WINDOWS buildnode", "linux", " Linux   X64 ", ""};
+        for (String search : searches) {
+            SearchQuery.FieldSearch compiled = SearchQuery.FieldSearch.compile(search);
+            for (String value : values) {
+                assertEquals("Searching \"" + search + "\" in \"" + value + "\"", containsAll(search, value),
+                        compiled.matches(new SlaveIndex.FieldValue(null, value)));
+            }
+        }
+    }
+
+    /**
+     * Matches a search the way it was done before searches were compiled: the lower cased, trimmed strings are
+     * split on whitespace and every search token has to be contained in some token of the value.
+     * @param search the search string.
+     * @param value the value of the slave.
+     * @return true if the value matches.
+     */
+    private static boolean containsAll(String search, String value) {
+        search = search.toLowerCase().trim();
+        if (search.isEmpty()) {
+            return true;
+        }
+        value = value.toLowerCase().trim();
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (String searchToken : search.split("\\s+")) {
+            boolean contained = false;
+            for (String valueToken : value.split("\\s+")) {
+                if (valueToken.contains(searchToken)) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
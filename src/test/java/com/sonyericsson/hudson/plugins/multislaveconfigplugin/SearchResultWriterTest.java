@@ -0,0 +1,180 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.slaves.DumbSlave;
+import hudson.slaves.SlaveComputer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link SearchResultWriter} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DumbSlave.class, SlaveComputer.class })
+public class SearchResultWriterTest {
+
+    private static final int SLAVES = 2000;
+
+    private NodeList nodeList;
+
+    /**
+     * Creates a search result with slaves that share most of their labels, status and remote FS parent.
+     */
+    @Before
+    public void setUp() {
+        SlaveComputer online = createComputer("computer.png", "[online]");
+        SlaveComputer offline = createComputer("computer-x.png", "[offline]");
+        nodeList = new NodeList();
+        for (int i = 0; i < SLAVES; i++) {
+            String name = "build" + i;
+            String labels = "linux x64 " + name;
+            if (i % 3 == 0) {
+                labels = "windows x86";
+            }
+            nodeList.add(createSlave(name, labels, "/home/jenkins/" + name, "Owned by the \"build\" <team>",
+                    i % 10 == 0 ? offline : online));
+        }
+    }
+
+    /**
+     * Creates a mocked computer.
+     * @param icon the status icon.
+     * @param iconAltText the status text.
+     * @return the mocked computer.
+     */
+    private static SlaveComputer createComputer(String icon, String iconAltText) {
+        SlaveComputer computer = mock(SlaveComputer.class);
+        when(computer.getIcon()).thenReturn(icon);
+        when(computer.getIconAltText()).thenReturn(iconAltText);
+        return computer;
+    }
+
+    /**
+     * Creates a mocked DumbSlave.
+     * @param name the node name.
+     * @param labels the label string.
+     * @param remoteFS the remote FS root.
+     * @param description the node description.
+     * @param computer the computer of the slave.
+     * @return the mocked slave.
+     */
+    private static DumbSlave createSlave(String name, String labels, String remoteFS, String description,
+                                         SlaveComputer computer) {
+        DumbSlave slave = mock(DumbSlave.class);
+        when(slave.getNodeName()).thenReturn(name);
+        when(slave.getLabelString()).thenReturn(labels);
+        when(slave.getNumExecutors()).thenReturn(2);
+        when(slave.getRemoteFS()).thenReturn(remoteFS);
+        when(slave.getNodeDescription()).thenReturn(description);
+        when(slave.getComputer()).thenReturn(computer);
+        return slave;
+    }
+
+    /**
+     * Writes a window in the columnar format.
+     * @param offset the index of the first slave.
+     * @param limit the maximum number of slaves.
+     * @return the written window.
+     * @throws IOException if writing fails.
+     */
+    private String write(int offset, int limit) throws IOException {
+        StringWriter out = new StringWriter();
+        SearchResultWriter.write(out, 7, nodeList, offset, limit);
+        return out.toString();
+    }
+
+    /**
+     * Tests {@link SearchResultWriter#write(java.io.Writer, long, NodeList, int, int)}.
+     * Decoding the columns should give the same slaves as {@link NodeList#toJSONArray(int, int)}.
+     * @throws IOException if writing fails.
+     */
+    @Test
+    public void testWriteDecodesToSameSlaves() throws IOException {
+        JSONObject columns = JSONObject.fromObject(write(30, 50));
+        assertEquals(7, columns.getLong("sequence"));
+        assertEquals(SLAVES, columns.getInt("total"));
+        assertEquals(30, columns.getInt("offset"));
+        assertEquals(50, columns.getInt("count"));
+
+        JSONArray strings = columns.getJSONArray("strings");
+        JSONArray expected = nodeList.toJSONArray(30, 50);
+        for (int i = 0; i < expected.size(); i++) {
+            JSONObject slave = expected.getJSONObject(i);
+            assertEquals(slave.getString("name"), columns.getJSONArray("name").getString(i));
+            assertEquals(slave.getString("icon"), strings.getString(columns.getJSONArray("icon").getInt(i)));
+            assertEquals(slave.getString("iconAltText"),
+                    strings.getString(columns.getJSONArray("iconAltText").getInt(i)));
+            JSONArray labelIndexes = columns.getJSONArray("labels").getJSONArray(i);
+            StringBuilder labels = new StringBuilder();
+            for (int j = 0; j < labelIndexes.size(); j++) {
+                labels.append(strings.getString(labelIndexes.getInt(j))).append(" ");
+            }
+            assertEquals(slave.getString("labels"), labels.toString().trim());
+            assertEquals(slave.getInt("executors"), columns.getJSONArray("executors").getInt(i));
+            JSONArray remoteFS = columns.getJSONArray("remoteFS").getJSONArray(i);
+            assertEquals(slave.getString("remoteFS"), strings.getString(remoteFS.getInt(0)) + remoteFS.getString(1));
+            assertEquals(slave.getString("description"),
+                    strings.getString(columns.getJSONArray("description").getInt(i)));
+        }
+    }
+
+    /**
+     * Tests {@link SearchResultWriter#write(java.io.Writer, long, NodeList, int, int)}.
+     * Markup and windows outside the result should be handled.
+     * @throws IOException if writing fails.
+     */
+    @Test
+    public void testWriteEscapesAndClamps() throws IOException {
+        String window = write(SLAVES - 1, 10);
+        assertFalse(window.contains("<"));
+        assertTrue(window.contains("\\u003cteam\\u003e"));
+        assertEquals(1, JSONObject.fromObject(window).getInt("count"));
+        assertEquals(0, JSONObject.fromObject(write(SLAVES + 5, 10)).getInt("count"));
+    }
+
+    /**
+     * Compares the size of the columnar format with {@link NodeList#toJSONArray(int, int)},
+     * for the whole result in one window.
+     * @throws IOException if writing fails.
+     */
+    @Test
+    public void testColumnarSmallerThanJSONArray() throws IOException {
+        int columnarBytes = write(0, SLAVES).length();
+        int jsonBytes = nodeList.toJSONArray(0, SLAVES).toString().length();
+        assertTrue("Columnar " + columnarBytes + " JSONArray " + jsonBytes, columnarBytes * 2 < jsonBytes);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests {@link SearchSequencer} using JUnit Tests.
+ */
+public class SearchSequencerTest {
+
+    private SearchSequencer searches;
+    private SessionState state;
+
+    /**
+     * Creates a new sequencer and session state.
+     */
+    @Before
+    public void setUp() {
+        searches = new SearchSequencer();
+        state = new SessionState();
+    }
+
+    /**
+     * Tests {@link SearchSequencer#begin(long)}.
+     * A newer search should supersede the older one, but not the other way around.
+     */
+    @Test
+    public void testBeginSupersedes() {
+        SearchSequencer.Ticket first = searches.begin(1);
+        assertFalse(first.isSuperseded());
+        SearchSequencer.Ticket second = searches.begin(2);
+        assertTrue(first.isSuperseded());
+        assertFalse(second.isSuperseded());
+
+        //A search that arrives late is superseded from the start
+        SearchSequencer.Ticket late = searches.begin(1);
+        assertTrue(late.isSuperseded());
+        assertFalse(second.isSuperseded());
+        assertEquals(2, searches.getLatest());
+    }
+
+    /**
+     * Tests {@link SearchSequencer#begin(long)}.
+     * Searches without sequence numbers should be numbered in the order they arrive.
+     */
+    @Test
+    public void testBeginWithoutSequence() {
+        SearchSequencer.Ticket first = searches.begin(-1);
+        SearchSequencer.Ticket second = searches.begin(-1);
+        assertTrue(second.getSequence() > first.getSequence());
+        assertTrue(first.isSuperseded());
+    }
+
+    /**
+     * Tests {@link SearchSequencer.Ticket#checkSuperseded()}.
+     */
+    @Test (expected = CancellationException.class)
+    public void testCheckSuperseded() {
+        SearchSequencer.Ticket first = searches.begin(1);
+        first.checkSuperseded();
+        searches.begin(2);
+        first.checkSuperseded();
+    }
+
+    /**
+     * Tests {@link SearchSequencer#publish(SearchSequencer.Ticket, SessionState, NodeList)}.
+     * Only the result of the latest search should be kept.
+     */
+    @Test
+    public void testPublish() {
+        SearchSequencer.Ticket first = searches.begin(1);
+        SearchSequencer.Ticket second = searches.begin(2);
+        NodeList firstResult = new NodeList();
+        NodeList secondResult = new NodeList();
+
+        SearchSequencer.Result result = searches.publish(second, state, secondResult);
+        assertNotNull(result);
+        assertSame(result, searches.getPublished());
+        assertNull(searches.publish(first, state, firstResult));
+        assertSame(secondResult, state.getNodeList());
+    }
+
+    /**
+     * Tests {@link SearchSequencer#newPage()}.
+     * A reloaded page should start again from sequence 1 without its searches being superseded, while the searches
+     * of the earlier page are.
+     */
+    @Test
+    public void testNewPageStartsAgain() {
+        long firstPage = searches.newPage();
+        SearchSequencer.Ticket old = searches.begin(firstPage, 1);
+        for (int i = 2; i <= 5; i++) {
+            old = searches.begin(firstPage, i);
+        }
+        SearchSequencer.Result oldResult = searches.publish(old, state, new NodeList());
+        assertNotNull(oldResult);
+
+        long secondPage = searches.newPage();
+        assertTrue(secondPage != firstPage);
+        assertTrue(old.isSuperseded());
+        SearchSequencer.Ticket reloaded = searches.begin(secondPage, 1);
+        assertFalse(reloaded.isSuperseded());
+        assertEquals(1, searches.getLatest());
+
+        //A late search from the earlier page shouldn't supersede the reloaded page
+        SearchSequencer.Ticket late = searches.begin(firstPage, 6);
+        assertTrue(late.isSuperseded());
+        assertFalse(reloaded.isSuperseded());
+
+        SearchSequencer.Result result = searches.publish(reloaded, state, new NodeList());
+        assertNotNull(result);
+        assertTrue(result.getSequence() != oldResult.getSequence());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Node;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests {@link SessionStateCache} using JUnit Tests.
+ */
+public class SessionStateCacheTest {
+
+    private static final long MAX_IDLE = 1000;
+
+    /**
+     * Tests {@link SessionStateCache#get(String)}.
+     * The same session should get the same state.
+     */
+    @Test
+    public void testGet() {
+        SessionStateCache cache = new SessionStateCache(2, MAX_IDLE);
+        SessionState state = cache.get("session1");
+        assertSame(state, cache.get("session1"));
+        assertSame(state, cache.getIfPresent("session1"));
+        assertNull(cache.getIfPresent("session2"));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Tests {@link SessionStateCache#get(String)}.
+     * The least recently used session should be evicted when there are too many sessions.
+     * @throws InterruptedException if interrupted while waiting for the clock.
+     */
+    @Test
+    public void testGetEvictsOverflow() throws InterruptedException {
+        SessionStateCache cache = new SessionStateCache(2, MAX_IDLE);
+        cache.get("session1");
+        Thread.sleep(2);
+        cache.get("session2");
+        Thread.sleep(2);
+        cache.get("session1");
+        Thread.sleep(2);
+        cache.get("session3");
+        assertEquals(2, cache.size());
+        assertNull(cache.getIfPresent("session2"));
+        assertNotNull(cache.getIfPresent("session1"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * Tests {@link SessionStateCache#evictIdle(long)}.
+     */
+    @Test
+    public void testEvictIdle() {
+        SessionStateCache cache = new SessionStateCache(2, MAX_IDLE);
+        cache.get("session1");
+        assertEquals(0, cache.evictIdle(System.currentTimeMillis()));
+        assertEquals(1, cache.evictIdle(System.currentTimeMillis() + 2 * MAX_IDLE));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * Tests {@link SessionStateCache#bind(javax.servlet.http.HttpSession)}.
+     * The state should be removed when the session is invalidated.
+     */
+    @Test
+    public void testBind() {
+        SessionStateCache cache = new SessionStateCache(2, MAX_IDLE);
+        HttpSession session = mock(HttpSession.class);
+        when(session.getId()).thenReturn("session1");
+        cache.get("session1");
+        cache.bind(session);
+
+        ArgumentCaptor<HttpSessionBindingListener> binding = ArgumentCaptor.forClass(HttpSessionBindingListener.class);
+        verify(session).setAttribute(anyString(), binding.capture());
+        binding.getValue().valueUnbound(new HttpSessionBindingEvent(session, "binding"));
+        assertNull(cache.getIfPresent("session1"));
+    }
+
+    /**
+     * Tests {@link SessionStateCache#getRetainedNodes()}.
+     */
+    @Test
+    public void testGetRetainedNodes() {
+        SessionStateCache cache = new SessionStateCache(2, MAX_IDLE);
+        NodeList nodeList = new NodeList();
+        nodeList.add(mock(Node.class));
+        nodeList.add(mock(Node.class));
+        cache.get("session1").setNodeList(nodeList);
+        cache.get("session2").setNodeList(nodeList);
+        cache.get("session3");
+        assertEquals(2, cache.getRetainedNodes());
+    }
+}
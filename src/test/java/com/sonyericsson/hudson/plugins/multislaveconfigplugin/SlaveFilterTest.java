@@ -0,0 +1,116 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import net.sf.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.jvnet.hudson.test.PretendSlave;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link SlaveFilter} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DumbSlave.class, PretendSlave.class })
+public class SlaveFilterTest {
+
+    private DumbSlave slave1;
+    private DumbSlave slave2;
+    private JSONObject searchParameters;
+
+    /**
+     * Creates two mocked slaves and an empty search form.
+     */
+    @Before
+    public void setUp() {
+        slave1 = mock(DumbSlave.class);
+        when(slave1.getNodeName()).thenReturn("build01");
+        when(slave1.getLabelString()).thenReturn("LINUX");
+        when(slave1.getNumExecutors()).thenReturn(2);
+        slave2 = mock(DumbSlave.class);
+        when(slave2.getNodeName()).thenReturn("test01");
+        when(slave2.getLabelString()).thenReturn("WINDOWS test01");
+        when(slave2.getNumExecutors()).thenReturn(1);
+
+        searchParameters = new JSONObject();
+        searchParameters.put("labels", "");
+        searchParameters.put("remoteFS", "");
+        searchParameters.put("description", "");
+        searchParameters.put("executors", "");
+        searchParameters.put("name", "");
+    }
+
+    /**
+     * Tests {@link SlaveFilter#compile(net.sf.json.JSONObject)}.
+     * An empty search form should give an empty filter that matches all slaves but no other nodes.
+     */
+    @Test
+    public void testCompileEmpty() {
+        SlaveFilter filter = SlaveFilter.compile(searchParameters);
+        assertTrue(filter.isEmpty());
+        assertTrue(filter.matches(slave1));
+        assertFalse(filter.matches(mock(PretendSlave.class)));
+    }
+
+    /**
+     * Tests {@link SlaveFilter#filter(java.util.Collection)}.
+     * Only the matching slaves should be kept, in the same order.
+     */
+    @Test
+    public void testFilter() {
+        searchParameters.put("name", "01");
+        searchParameters.put("labels", "$NAME");
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(slave1);
+        nodes.add(slave2);
+        NodeList result = SlaveFilter.compile(searchParameters).filter(nodes);
+        assertEquals(1, result.size());
+        assertSame(slave2, result.get(0));
+    }
+
+    /**
+     * Tests {@link SlaveFilter#matches(hudson.model.Node)}.
+     * The executors criterion is the cheapest, so the name should never be looked at when it fails.
+     */
+    @Test
+    public void testMatchesCheapestFirst() {
+        SlaveFilter filter = new SlaveFilter().addSearch(SlaveIndex.Field.NAME, "build").addExecutors(1);
+        assertFalse(filter.matches(slave1));
+        verify(slave1, never()).getNodeName();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.slaves.DumbSlave;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.DESCRIPTION;
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.LABELS;
+import static com.sonyericsson.hudson.plugins.multislaveconfigplugin.SlaveIndex.Field.NAME;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.*;
+
+/**
+ * Tests {@link SlaveIndex} using JUnit Tests.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DumbSlave.class, Hudson.class })
+public class SlaveIndexTest {
+
+    private Hudson hudsonMock;
+    private List<Node> nodes;
+    private DumbSlave slave1;
+    private DumbSlave slave2;
+
+    /**
+     * Creates a mocked Jenkins with two slaves.
+     */
+    @Before
+    public void setUp() {
+        slave1 = createSlave("build01", "LINUX BUILD", 2);
+        slave2 = createSlave("test01", "WINDOWS", 1);
+        nodes = new ArrayList<Node>();
+        nodes.add(slave1);
+        nodes.add(slave2);
+
+        hudsonMock = mock(Hudson.class);
+        mockStatic(Hudson.class);
+        when(Hudson.getInstance()).thenReturn(hudsonMock);
+        when(hudsonMock.getNodes()).thenReturn(nodes);
+    }
+
+    /**
+     * Creates a mocked DumbSlave.
+     * @param name the node name.
+     * @param labels the label string.
+     * @param executors the number of executors.
+     * @return the mocked slave.
+     */
+    private static DumbSlave createSlave(String name, String labels, int executors) {
+        DumbSlave slave = mock(DumbSlave.class);
+        when(slave.getNodeName()).thenReturn(name);
+        when(slave.getLabelString()).thenReturn(labels);
+        when(slave.getNumExecutors()).thenReturn(executors);
+        when(slave.getRemoteFS()).thenReturn("/jenkins/" + name);
+        when(slave.getNodeDescription()).thenReturn("");
+        return slave;
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getByToken(SlaveIndex.Field, String)}.
+     * Parts of tokens should give hits, case insensitive.
+     */
+    @Test
+    public void testGetByToken() {
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> result = index.getByToken(LABELS, "lin");
+        assertEquals(1, result.size());
+        assertTrue(result.contains(slave1));
+
+        result = index.getByToken(NAME, "01");
+        assertEquals(2, result.size());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getByToken(SlaveIndex.Field, String)}.
+     * Slaves with an empty field should never give a hit.
+     */
+    @Test
+    public void testGetByTokenEmptyField() {
+        assertTrue(SlaveIndex.getInstance().getByToken(DESCRIPTION, "").isEmpty());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getByToken(SlaveIndex.Field, String)}.
+     * Tokens longer than the indexed substrings should hit the terms containing the whole token.
+     */
+    @Test
+    public void testGetByTokenLong() {
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> result = index.getByToken(NAME, "uild01");
+        assertEquals(1, result.size());
+        assertTrue(result.contains(slave1));
+        assertTrue(index.getByToken(LABELS, "indows").contains(slave2));
+        assertTrue(index.getByToken(NAME, "build02").isEmpty());
+    }
+
+    /**
+     * Tests {@link SlaveIndex.TermIndex}.
+     * Removed terms should no longer be found, neither by short nor by long tokens.
+     */
+    @Test
+    public void testTermIndexRemove() {
+        SlaveIndex.TermIndex<String> termIndex = new SlaveIndex.TermIndex<String>();
+        termIndex.add("build01", "build01");
+        termIndex.add("build02", "build02");
+        assertEquals(2, termIndex.find("bu").size());
+        assertEquals(2, termIndex.find("build0").size());
+
+        termIndex.remove("build01");
+        assertEquals(1, termIndex.find("bu").size());
+        assertTrue(termIndex.find("build01").isEmpty());
+        assertTrue(termIndex.find("1").isEmpty());
+        assertEquals(1, termIndex.find("").size());
+    }
+
+    /**
+     * Tests {@link SlaveIndex.TermIndex#find(String)}.
+     * A term having every substring of a long token, but not the whole token, shouldn't be found.
+     */
+    @Test
+    public void testTermIndexFindLong() {
+        SlaveIndex.TermIndex<String> termIndex = new SlaveIndex.TermIndex<String>();
+        termIndex.add("abcd", "abcd");
+        termIndex.add("bcde", "bcde");
+        termIndex.add("xabcdex", "xabcdex");
+        Collection<String> found = termIndex.find("abcde");
+        assertEquals(1, found.size());
+        assertTrue(found.contains("xabcdex"));
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getAll()}.
+     * The slaves shouldn't be copied for every call, only when they have changed.
+     */
+    @Test
+    public void testGetAllSnapshot() {
+        Set<DumbSlave> all = SlaveIndex.getInstance().getAll();
+        assertSame(all, SlaveIndex.getInstance().getAll());
+
+        nodes.remove(slave2);
+        SlaveIndex.invalidate();
+        Set<DumbSlave> changed = SlaveIndex.getInstance().getAll();
+        assertEquals(1, changed.size());
+        assertEquals(2, all.size());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getByExecutors(int)}.
+     */
+    @Test
+    public void testGetByExecutors() {
+        Set<DumbSlave> result = SlaveIndex.getInstance().getByExecutors(2);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(slave1));
+        assertTrue(SlaveIndex.getInstance().getByExecutors(7).isEmpty());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#invalidate()}.
+     * Replaced and removed nodes should be picked up after the index has been invalidated.
+     */
+    @Test
+    public void testInvalidate() {
+        assertEquals(2, SlaveIndex.getInstance().getAll().size());
+
+        DumbSlave replacement = createSlave("build01", "SOLARIS", 2);
+        nodes.set(0, replacement);
+        nodes.remove(slave2);
+        SlaveIndex.invalidate();
+
+        SlaveIndex index = SlaveIndex.getInstance();
+        assertEquals(1, index.getAll().size());
+        assertTrue(index.getByToken(LABELS, "linux").isEmpty());
+        assertTrue(index.getByToken(NAME, "test").isEmpty());
+        assertTrue(index.getByToken(LABELS, "solaris").contains(replacement));
+    }
+
+    /**
+     * Tests {@link SlaveIndex.FieldValue#getEnvironmentTokens()}.
+     * The environment variable form should only be interpreted when asked for, once, and then reused.
+     */
+    @Test
+    public void testEnvironmentTokensCached() {
+        SlaveIndex.getInstance();
+        SlaveIndex.FieldValue value = SlaveIndex.getFieldValue(slave1, LABELS);
+        assertSame(value, SlaveIndex.getFieldValue(slave1, LABELS));
+        //Once when the name was indexed
+        verify(slave1, times(1)).getNodeName();
+
+        String[] environmentTokens = value.getEnvironmentTokens();
+        assertSame(environmentTokens, value.getEnvironmentTokens());
+        verify(slave1, times(2)).getNodeName();
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getInstance()}.
+     * A new Jenkins instance should get a new index.
+     */
+    @Test
+    public void testNewInstance() {
+        assertEquals(2, SlaveIndex.getInstance().getAll().size());
+        Hudson otherHudson = mock(Hudson.class);
+        when(Hudson.getInstance()).thenReturn(otherHudson);
+        when(otherHudson.getNodes()).thenReturn(new ArrayList<Node>());
+        assertTrue(SlaveIndex.getInstance().getAll().isEmpty());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#getByLabel(String)}.
+     * Labels should be compared exactly, unlike searches.
+     */
+    @Test
+    public void testGetByLabel() {
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> result = index.getByLabel("LINUX");
+        assertEquals(1, result.size());
+        assertTrue(result.contains(slave1));
+        assertTrue(index.getByLabel("linux").isEmpty());
+        assertTrue(index.getByLabel("LIN").isEmpty());
+    }
+
+    /**
+     * Tests {@link SlaveIndex#anyHasLabel(Set, String)}.
+     * Only the given slaves should be checked for the label.
+     */
+    @Test
+    public void testAnyHasLabel() {
+        SlaveIndex index = SlaveIndex.getInstance();
+        Set<DumbSlave> selection = index.getIndexed(nodes.subList(1, 2));
+        assertEquals(1, selection.size());
+        assertTrue(index.anyHasLabel(selection, "WINDOWS"));
+        assertFalse(index.anyHasLabel(selection, "LINUX"));
+        assertFalse(index.anyHasLabel(selection, "never-seen-label"));
+    }
+
+    /**
+     * Tests that the labels of deleted slaves don't stay in the {@link LabelDictionary} of the index.
+     * Once most labels are unused, the next sync should rebuild the index with only the labels in use.
+     */
+    @Test
+    public void testDictionaryRenewed() {
+        StringBuilder manyLabels = new StringBuilder();
+        for (int i = 0; i < LabelDictionary.MIN_RENEW_SIZE; i++) {
+            manyLabels.append("deleted").append(i).append(" ");
+        }
+        DumbSlave manyLabelsSlave = createSlave("many01", manyLabels.toString(), 1);
+        nodes.add(manyLabelsSlave);
+        SlaveIndex index = SlaveIndex.getInstance();
+        assertTrue(index.getDictionarySize() > LabelDictionary.MIN_RENEW_SIZE);
+
+        nodes.remove(manyLabelsSlave);
+        SlaveIndex.invalidate();
+        index = SlaveIndex.getInstance();
+
+        assertEquals(3, index.getDictionarySize());
+        assertTrue(index.getByLabel("deleted7").isEmpty());
+        assertTrue(index.getByLabel("LINUX").contains(slave1));
+        assertTrue(index.getByToken(LABELS, "win").contains(slave2));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2011 Sony Ericsson Mobile Communications. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.sonyericsson.hudson.plugins.multislaveconfigplugin;
+
+import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.slaves.CommandLauncher;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import hudson.slaves.RetentionStrategy;
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests {@link SlaveTemplate} using HudsonTestCase.
+ * Using HudsonTestCase since it's hard to create a DumbSlave by mocking only.
+ */
+public class SlaveTemplateHudsonTest extends HudsonTestCase {
+
+    /**
+     * Tests {@link SlaveTemplate#create(String)}.
+     * Environment variables should be interpreted on the created slave, also in the launcher.
+     * @throws Descriptor.FormException if the slave creation went wrong
+     * @throws IOException if the slave creation went wrong
+     */
+    public void testCreateWithVariables() throws Descriptor.FormException, IOException {
+        DumbSlave src = new DumbSlave("src", "description of $NAME", "/home/$NAME", "2", Node.Mode.EXCLUSIVE,
+                "LABEL $NAME", new CommandLauncher("ssh $NAME"), new RetentionStrategy.Always(),
+                Collections.EMPTY_LIST);
+        DumbSlave slave = SlaveTemplate.compile(src).create("slave1");
+
+        assertEquals("slave1", slave.getNodeName());
+        assertEquals("description of slave1", slave.getNodeDescription());
+        assertEquals("/home/slave1", slave.getRemoteFS());
+        assertEquals(2, slave.getNumExecutors());
+        assertEquals(Node.Mode.EXCLUSIVE, slave.getMode());
+        assertEquals("LABEL slave1", slave.getLabelString());
+        assertEquals("ssh slave1", ((CommandLauncher)slave.getLauncher()).getCommand());
+    }
+
+    /**
+     * Tests {@link SlaveTemplate#create(String)}.
+     * A launcher without environment variables should be reused as it is.
+     * @throws Descriptor.FormException if the slave creation went wrong
+     * @throws IOException if the slave creation went wrong
+     */
+    public void testCreateSharesLauncher() throws Descriptor.FormException, IOException {
+        JNLPLauncher launcher = new JNLPLauncher("", "-Xmx256m");
+        DumbSlave src = new DumbSlave("src", "", "/home", "1", Node.Mode.NORMAL, "", launcher,
+                new RetentionStrategy.Always(), Collections.EMPTY_LIST);
+        SlaveTemplate template = SlaveTemplate.compile(src);
+
+        assertSame(launcher, template.create("slave1").getLauncher());
+        assertSame(launcher, template.create("slave2").getLauncher());
+    }
+
+    /**
+     * Tests {@link SlaveTemplate#createAll(java.util.Collection)}.
+     * Many slaves should come back complete and in order.
+     * @throws Descriptor.FormException if the slave creation went wrong
+     * @throws IOException if the slave creation went wrong
+     */
+    public void testCreateAll() throws Descriptor.FormException, IOException {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 256; i++) {
+            names.add("slave" + i);
+        }
+        NodeList nodeList = SlaveTemplate.newSlave().createAll(names);
+
+        assertEquals(names.size(), nodeList.size());
+        for (int i = 0; i < names.size(); i++) {
+            assertEquals(names.get(i), nodeList.get(i).getNodeName());
+        }
+    }
+}
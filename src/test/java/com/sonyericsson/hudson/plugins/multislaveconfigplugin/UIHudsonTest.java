@@ -562,7 +562,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(1, link.getNodeList(currentSessionId).size());
         assertEquals("slave2", link.getNodeList(currentSessionId).get(0).getNodeName());
@@ -584,7 +584,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(1, link.getNodeList(currentSessionId).size());
         assertEquals("slave2", link.getNodeList(currentSessionId).get(0).getNodeName());
@@ -606,7 +606,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(2, link.getNodeList(currentSessionId).size());
         assertEquals("LABEL1 LABEL3", link.getNodeList(currentSessionId).get(0).getLabelString());
@@ -628,7 +628,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(1, link.getNodeList(currentSessionId).size());
         assertEquals("This is the description on dumbSlave1",
@@ -650,7 +650,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(1, link.getNodeList(currentSessionId).size());
         assertEquals("HOME/slave2", ((DumbSlave)link.getNodeList(currentSessionId).get(0)).getRemoteFS());
@@ -671,7 +671,7 @@ public class UIHudsonTest extends HudsonTestCase {
         //Search.
         currentPage = submit(form);
 
-        String currentSessionId = link.userMode.keySet().iterator().next();
+        String currentSessionId = link.sessions.getSessionIds().iterator().next();
 
         assertEquals(1, link.getNodeList(currentSessionId).size());
         assertEquals(2, (link.getNodeList(currentSessionId).get(0)).getNumExecutors());